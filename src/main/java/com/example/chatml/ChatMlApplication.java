@@ -3,8 +3,10 @@ package com.example.chatml;
 import io.github.cdimascio.dotenv.Dotenv;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableAsync;
 
 @SpringBootApplication
+@EnableAsync
 public class ChatMlApplication {
     public static void main(String[] args) {
         // Load .env file
@@ -0,0 +1,186 @@
+package com.example.chatml.config;
+
+import com.example.chatml.service.Deadline;
+import org.apache.hc.client5.http.classic.HttpClient;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.core5.concurrent.Cancellable;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request factory that applies the {@link Deadline} of the calling thread to each outbound call:
+ * pool-wait and response timeouts are capped at the remaining budget, and a call still running when
+ * the deadline expires (a slow stream, a stuck read) or is cancelled is aborted. The abort is cancelled
+ * when the response is closed, so finished calls leave nothing scheduled. Calls without a deadline use
+ * the client defaults.
+ */
+class DeadlineRequestFactory extends HttpComponentsClientHttpRequestFactory {
+
+    private static final ScheduledThreadPoolExecutor ABORTER = new ScheduledThreadPoolExecutor(1, task -> {
+        Thread thread = new Thread(task, "http-deadline-aborter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        // Most calls finish well before their deadline: drop their aborts from the queue at once
+        ABORTER.setRemoveOnCancelPolicy(true);
+    }
+
+    // Hands the request created by super.createRequest from postProcessHttpRequest back to createRequest
+    private static final ThreadLocal<Cancellable> CREATED = new ThreadLocal<>();
+
+    private final long connectionRequestTimeoutMs;
+    private final long responseTimeoutMs;
+
+    DeadlineRequestFactory(HttpClient httpClient, long connectionRequestTimeoutMs, long responseTimeoutMs) {
+        super(httpClient);
+        this.connectionRequestTimeoutMs = connectionRequestTimeoutMs;
+        this.responseTimeoutMs = responseTimeoutMs;
+    }
+
+    @Override
+    protected HttpContext createHttpContext(HttpMethod httpMethod, URI uri) {
+        Deadline deadline = Deadline.current();
+        if (deadline == null) {
+            return null;
+        }
+        deadline.check(httpMethod + " " + uri.getPath());
+        // At least 1 ms: a zero timeout means "no timeout" to HttpClient
+        long remaining = Math.max(1, deadline.remainingMillis());
+        HttpClientContext context = HttpClientContext.create();
+        context.setRequestConfig(RequestConfig.custom()
+                .setConnectionRequestTimeout(Timeout.ofMilliseconds(Math.min(connectionRequestTimeoutMs, remaining)))
+                .setResponseTimeout(Timeout.ofMilliseconds(Math.min(responseTimeoutMs, remaining)))
+                .build());
+        return context;
+    }
+
+    @Override
+    public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) throws IOException {
+        ClientHttpRequest request;
+        Cancellable cancellable;
+        try {
+            request = super.createRequest(uri, httpMethod);
+            cancellable = CREATED.get();
+        } finally {
+            CREATED.remove();
+        }
+        Deadline deadline = Deadline.current();
+        return deadline != null && cancellable != null ? new AbortingRequest(request, cancellable, deadline) : request;
+    }
+
+    @Override
+    protected void postProcessHttpRequest(ClassicHttpRequest request) {
+        if (request instanceof Cancellable cancellable) {
+            CREATED.set(cancellable);
+        }
+    }
+
+    /**
+     * Schedules the abort when the request is sent and cancels it when the response is closed
+     * (or the request fails).
+     */
+    private static final class AbortingRequest implements ClientHttpRequest {
+
+        private final ClientHttpRequest delegate;
+        private final Cancellable cancellable;
+        private final Deadline deadline;
+
+        AbortingRequest(ClientHttpRequest delegate, Cancellable cancellable, Deadline deadline) {
+            this.delegate = delegate;
+            this.cancellable = cancellable;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public ClientHttpResponse execute() throws IOException {
+            ScheduledFuture<?> abort =
+                    ABORTER.schedule(cancellable::cancel, deadline.remainingNanos(), TimeUnit.NANOSECONDS);
+            Deadline.Scope onCancel = deadline.onCancel(cancellable::cancel);
+            try {
+                return new AbortCancellingResponse(delegate.execute(), abort, onCancel);
+            } catch (IOException | RuntimeException | Error e) {
+                abort.cancel(false);
+                onCancel.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public HttpMethod getMethod() {
+            return delegate.getMethod();
+        }
+
+        @Override
+        public URI getURI() {
+            return delegate.getURI();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return delegate.getHeaders();
+        }
+
+        @Override
+        public OutputStream getBody() throws IOException {
+            return delegate.getBody();
+        }
+    }
+
+    private static final class AbortCancellingResponse implements ClientHttpResponse {
+
+        private final ClientHttpResponse delegate;
+        private final ScheduledFuture<?> abort;
+        private final Deadline.Scope onCancel;
+
+        AbortCancellingResponse(ClientHttpResponse delegate, ScheduledFuture<?> abort, Deadline.Scope onCancel) {
+            this.delegate = delegate;
+            this.abort = abort;
+            this.onCancel = onCancel;
+        }
+
+        @Override
+        public HttpStatusCode getStatusCode() throws IOException {
+            return delegate.getStatusCode();
+        }
+
+        @Override
+        public String getStatusText() throws IOException {
+            return delegate.getStatusText();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return delegate.getHeaders();
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            return delegate.getBody();
+        }
+
+        @Override
+        public void close() {
+            abort.cancel(false);
+            onCancel.close();
+            delegate.close();
+        }
+    }
+}
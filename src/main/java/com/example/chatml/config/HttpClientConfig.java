@@ -0,0 +1,79 @@
+package com.example.chatml.config;
+
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Outbound HTTP layer shared by AzureChatClient, AzureEmbeddingClient and ChromaClient:
+ * one connection pool (per-route limits, keep-alive, idle eviction), connect/read timeouts,
+ * transparent gzip/deflate response decompression, and per-request deadlines
+ * ({@link DeadlineRequestFactory}).
+ */
+@Configuration
+public class HttpClientConfig {
+
+    @Value("${outbound.http.max-connections:100}")
+    private int maxConnections;
+
+    @Value("${outbound.http.max-connections-per-route:20}")
+    private int maxConnectionsPerRoute;
+
+    @Value("${outbound.http.connect-timeout-ms:3000}")
+    private long connectTimeoutMs;
+
+    @Value("${outbound.http.read-timeout-ms:60000}")
+    private long readTimeoutMs;
+
+    @Value("${outbound.http.connection-request-timeout-ms:2000}")
+    private long connectionRequestTimeoutMs;
+
+    @Value("${outbound.http.idle-eviction-seconds:30}")
+    private long idleEvictionSeconds;
+
+    @Value("${outbound.http.connection-ttl-seconds:300}")
+    private long connectionTtlSeconds;
+
+    @Bean(destroyMethod = "close")
+    public PoolingHttpClientConnectionManager outboundConnectionManager() {
+        return PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnectionsPerRoute)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.ofMilliseconds(connectTimeoutMs))
+                        .setSocketTimeout(Timeout.ofMilliseconds(readTimeoutMs))
+                        // Re-check connections that sat idle, the server may have closed them
+                        .setValidateAfterInactivity(TimeValue.ofSeconds(2))
+                        .setTimeToLive(TimeValue.ofSeconds(connectionTtlSeconds))
+                        .build())
+                .build();
+    }
+
+    @Bean(destroyMethod = "close")
+    public CloseableHttpClient outboundHttpClient(PoolingHttpClientConnectionManager connectionManager) {
+        return HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Timeout.ofMilliseconds(connectionRequestTimeoutMs))
+                        .setResponseTimeout(Timeout.ofMilliseconds(readTimeoutMs))
+                        .build())
+                .evictIdleConnections(TimeValue.ofSeconds(idleEvictionSeconds))
+                .evictExpiredConnections()
+                .build();
+    }
+
+    @Bean
+    public RestTemplate outboundRestTemplate(CloseableHttpClient outboundHttpClient) {
+        return new RestTemplate(
+                new DeadlineRequestFactory(outboundHttpClient, connectionRequestTimeoutMs, readTimeoutMs));
+    }
+}
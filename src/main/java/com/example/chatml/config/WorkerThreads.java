@@ -0,0 +1,41 @@
+package com.example.chatml.config;
+
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread factory for the pools the application owns (SSE streams, Chroma query groups and hedging,
+ * analytics writes, index loading, ingestion). Follows spring.threads.virtual.enabled like Tomcat and
+ * the task executor do: virtual threads when it is set on a Java 21+ runtime, daemon platform threads
+ * otherwise.
+ * The pools keep their own size limits and queues either way, so they still bound concurrency.
+ */
+@Component
+public class WorkerThreads {
+
+    private final boolean virtual;
+
+    public WorkerThreads(Environment environment) {
+        this.virtual = Threading.VIRTUAL.isActive(environment);
+    }
+
+    /**
+     * Threads named {@code name-1}, {@code name-2}, ...
+     */
+    public ThreadFactory factory(String name) {
+        if (virtual) {
+            return new VirtualThreadTaskExecutor(name + "-").getVirtualThreadFactory();
+        }
+        AtomicInteger threads = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, name + "-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -1,10 +1,28 @@
 package com.example.chatml.controller;
 
+import com.example.chatml.config.WorkerThreads;
 import com.example.chatml.model.ChatRequest;
 import com.example.chatml.model.ChatResponse;
+import com.example.chatml.service.Deadline;
 import com.example.chatml.service.RagChatService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 @RestController
 @RequestMapping("/api/chat")
@@ -12,9 +30,83 @@ import org.springframework.web.bind.annotation.*;
 public class ChatRagController {
 
     private final RagChatService ragChatService;
+    private final WorkerThreads workerThreads;
+
+    @Value("${rag.stream.timeout-ms:120000}")
+    private long streamTimeoutMs;
+
+    // A stream holds its thread until the answer ends, so streams get a pool of their own
+    @Value("${rag.stream.max-concurrent:16}")
+    private int streamMaxConcurrent;
+
+    @Value("${rag.stream.queue-capacity:16}")
+    private int streamQueueCapacity;
+
+    // Latency budget per endpoint, shared by embedding, retrieval and the chat completion
+    @Value("${rag.deadline.query-ms:30000}")
+    private long queryDeadlineMs;
+
+    @Value("${rag.deadline.stream-ms:60000}")
+    private long streamDeadlineMs;
+
+    private ThreadPoolExecutor streamExecutor;
+
+    @PostConstruct
+    void init() {
+        streamExecutor = new ThreadPoolExecutor(streamMaxConcurrent, streamMaxConcurrent, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, streamQueueCapacity)), workerThreads.factory("sse-stream"));
+        streamExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        streamExecutor.shutdownNow();
+    }
 
     @PostMapping("/query")
     public ChatResponse query(@RequestBody ChatRequest chatRequest) {
-        return ragChatService.answer(chatRequest);
+        return ragChatService.answer(chatRequest, Deadline.after(queryDeadlineMs));
+    }
+
+    /**
+     * Streams the answer as Server-Sent Events: one "token" event per content delta
+     * ({"content": "..."}), then a "done" event carrying the ChatResponse with the token count and limitReached.
+     * Answers 503 when rag.stream.max-concurrent streams are running and rag.stream.queue-capacity are waiting.
+     */
+    @PostMapping(value = "/query/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> queryStream(@RequestBody ChatRequest chatRequest) {
+        SseEmitter emitter = new SseEmitter(streamTimeoutMs);
+        // Started on arrival, so time spent waiting for an executor thread counts too
+        Deadline deadline = Deadline.after(streamDeadlineMs);
+        try {
+            streamExecutor.execute(() -> stream(chatRequest, deadline, emitter));
+        } catch (RejectedExecutionException e) {
+            System.err.println("Rejecting stream: " + streamMaxConcurrent + " streams running, queue full");
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1").build();
+        }
+        return ResponseEntity.ok(emitter);
+    }
+
+    private void stream(ChatRequest chatRequest, Deadline deadline, SseEmitter emitter) {
+        try {
+            ChatResponse response = ragChatService.answerStream(chatRequest, deadline, token -> send(emitter,
+                    SseEmitter.event().name("token").data(Map.of("content", token), MediaType.APPLICATION_JSON)));
+            send(emitter, SseEmitter.event().name("done").data(response, MediaType.APPLICATION_JSON));
+            emitter.complete();
+        } catch (UncheckedIOException e) {
+            // Client went away; stop reading from Azure
+            emitter.completeWithError(e.getCause());
+        } catch (Exception e) {
+            System.err.println("Error streaming answer: " + e.getMessage());
+            emitter.completeWithError(e);
+        }
+    }
+
+    private static void send(SseEmitter emitter, SseEmitter.SseEventBuilder event) {
+        try {
+            emitter.send(event);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 }
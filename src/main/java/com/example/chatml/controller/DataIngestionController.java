@@ -1,32 +1,58 @@
 package com.example.chatml.controller;
 
-import com.example.chatml.service.PortfolioIngestionService;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.example.chatml.dto.IngestionJobDTO;
+import com.example.chatml.service.IngestionJob;
+import com.example.chatml.service.IngestionJobService;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.ResourceLoader;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 // 1. Class-level annotation for REST endpoint path
+@Slf4j
 @RestController
 @RequestMapping("/api/data")
 @RequiredArgsConstructor
 public class DataIngestionController {
 
-    private final PortfolioIngestionService ingestionService;
+    private final IngestionJobService ingestionJobService;
     private final ResourceLoader resourceLoader;
-    private final ObjectMapper objectMapper = new ObjectMapper(); // Ensure ObjectMapper is initialized
 
-    // 2. Method-level annotation for the specific /load endpoint
+    // Uploads are refused until an admin key is configured; clients send it in X-Admin-Key
+    @Value("${ingestion.upload.admin-key:}")
+    private String adminKey;
+
+    @Value("${ingestion.upload.max-bytes:10485760}")
+    private long maxUploadBytes;
+
+    // 2. Method-level annotation for the specific /load endpoint; ingestion runs as a background job,
+    // and a full job queue gets 503 with Retry-After like /upload
     @PostMapping("/load")
-    public String loadData() throws Exception {
+    public ResponseEntity<IngestionJobDTO> loadData() {
         System.out.println("Starting portfolio data ingestion...");
 
         // Find the file in the classpath (src/main/resources)
@@ -37,18 +63,107 @@ public class DataIngestionController {
             throw new RuntimeException("Data file not found at src/main/resources/portfolio-data.json");
         }
 
-        try (InputStream inputStream = resource.getInputStream()) {
-            // Read the JSON file into a List of Maps
-            List<Map<String, Object>> portfolios = objectMapper.readValue(inputStream, new TypeReference<>() {});
+        // The job streams the file, one item at a time
+        try {
+            return accepted(ingestionJobService.submit(resource::getInputStream, true));
+        } catch (RejectedExecutionException e) {
+            return queueFull();
+        }
+    }
 
-            int count = 0;
-            for (Map<String, Object> portfolio : portfolios) {
-                ingestionService.ingestPortfolio(portfolio);
-                count++;
-            }
+    /**
+     * Ingests portfolio items from the request body: a JSON array or NDJSON (one object per line).
+     * Its items are added or updated; with replace=true the body is the whole portfolio and ids it
+     * does not contain are deleted. Requires the X-Admin-Key header; a body over
+     * {@code ingestion.upload.max-bytes} gets 413 and a full job queue 503.
+     * POST /api/data/upload
+     */
+    @PostMapping(value = "/upload", consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public ResponseEntity<IngestionJobDTO> upload(HttpServletRequest request,
+                                                  @RequestHeader(value = "X-Admin-Key", required = false) String key,
+                                                  @RequestParam(defaultValue = "false") boolean replace) throws IOException {
+        if (adminKey.isBlank()) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        if (key == null || !MessageDigest.isEqual(key.getBytes(StandardCharsets.UTF_8), adminKey.getBytes(StandardCharsets.UTF_8))) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        if (request.getContentLengthLong() > maxUploadBytes) {
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
+        }
+
+        // Spooled to disk so the job can parse it after this request returns; the file is deleted once read
+        Path spool = Files.createTempFile("portfolio-upload-", ".json");
+        long bytes;
+        try (InputStream body = request.getInputStream()) {
+            bytes = copy(body, spool, maxUploadBytes);
+        } catch (IOException e) {
+            Files.deleteIfExists(spool);
+            throw e;
+        }
+        if (bytes > maxUploadBytes) {
+            // A chunked body declares no length, so its size is only known once read
+            Files.deleteIfExists(spool);
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
+        }
+        log.info("Received portfolio upload of {} bytes (replace={})", bytes, replace);
+
+        try {
+            return accepted(ingestionJobService.submit(IngestionJobService.Source.spooledFile(spool), replace));
+        } catch (RejectedExecutionException e) {
+            return queueFull();
+        }
+    }
+
+    /**
+     * Progress of one ingestion job
+     * GET /api/data/jobs/{jobId}
+     */
+    @GetMapping("/jobs/{jobId}")
+    public ResponseEntity<IngestionJobDTO> getJob(@PathVariable String jobId) {
+        IngestionJob job = ingestionJobService.get(jobId);
+        if (job == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(IngestionJobDTO.of(job));
+    }
+
+    /**
+     * Recent ingestion jobs, newest first
+     * GET /api/data/jobs
+     */
+    @GetMapping("/jobs")
+    public ResponseEntity<List<IngestionJobDTO>> getJobs() {
+        return ResponseEntity.ok(ingestionJobService.recent().stream().map(IngestionJobDTO::of).toList());
+    }
 
-            System.out.println("Ingestion completed.");
-            return "Successfully ingested " + count + " documents into ChromaDB.";
+    /**
+     * Copies {@code body} to {@code file}, stopping once more than {@code limit} bytes have been copied.
+     * Returns the bytes copied, which exceed {@code limit} when the body was too large.
+     */
+    private static long copy(InputStream body, Path file, long limit) throws IOException {
+        byte[] buffer = new byte[8192];
+        long copied = 0;
+        try (OutputStream out = Files.newOutputStream(file)) {
+            int read;
+            while (copied <= limit && (read = body.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                copied += read;
+            }
         }
+        return copied;
+    }
+
+    private static ResponseEntity<IngestionJobDTO> accepted(IngestionJob job) {
+        return ResponseEntity.accepted()
+                .location(URI.create("/api/data/jobs/" + job.getId()))
+                .body(IngestionJobDTO.of(job));
+    }
+
+    /**
+     * The job queue is full (or the service is shutting down): ask the client to retry later.
+     */
+    private static ResponseEntity<IngestionJobDTO> queueFull() {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "30").build();
     }
-}
\ No newline at end of file
+}
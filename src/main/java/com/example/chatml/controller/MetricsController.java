@@ -0,0 +1,99 @@
+package com.example.chatml.controller;
+
+import com.example.chatml.dto.CacheStatsDTO;
+import com.example.chatml.dto.DownstreamStatsDTO;
+import com.example.chatml.dto.HttpPoolStatsDTO;
+import com.example.chatml.dto.SingleFlightStatsDTO;
+import com.example.chatml.service.AnswerCache;
+import com.example.chatml.service.AzureEmbeddingClient;
+import com.example.chatml.service.DownstreamGuards;
+import com.example.chatml.service.EmbeddingCache;
+import com.example.chatml.service.RagChatService;
+import lombok.RequiredArgsConstructor;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.core5.pool.PoolStats;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/admin/metrics")
+@CrossOrigin(origins = "*")
+@RequiredArgsConstructor
+public class MetricsController {
+
+    private final EmbeddingCache embeddingCache;
+    private final AnswerCache answerCache;
+    private final PoolingHttpClientConnectionManager outboundConnectionManager;
+    private final AzureEmbeddingClient embeddingClient;
+    private final RagChatService ragChatService;
+    private final DownstreamGuards downstreamGuards;
+
+    /**
+     * Embedding cache hit/miss counters
+     * GET /api/admin/metrics/embedding-cache
+     */
+    @GetMapping("/embedding-cache")
+    public ResponseEntity<CacheStatsDTO> getEmbeddingCacheStats() {
+        return ResponseEntity.ok(CacheStatsDTO.of(
+                embeddingCache.getHits(),
+                embeddingCache.getMisses(),
+                embeddingCache.size(),
+                embeddingCache.getMaxEntries(),
+                embeddingCache.getEvictions()));
+    }
+
+    /**
+     * Semantic answer cache hit/miss counters
+     * GET /api/admin/metrics/answer-cache
+     */
+    @GetMapping("/answer-cache")
+    public ResponseEntity<CacheStatsDTO> getAnswerCacheStats() {
+        return ResponseEntity.ok(CacheStatsDTO.of(
+                answerCache.getHits(),
+                answerCache.getMisses(),
+                answerCache.size(),
+                answerCache.getMaxEntries(),
+                answerCache.getEvictions()));
+    }
+
+    /**
+     * Outbound HTTP connection pool usage, in total and per route (host)
+     * GET /api/admin/metrics/http-pool
+     */
+    @GetMapping("/http-pool")
+    public ResponseEntity<HttpPoolStatsDTO> getHttpPoolStats() {
+        PoolStats total = outboundConnectionManager.getTotalStats();
+        List<HttpPoolStatsDTO.RouteStats> routes = outboundConnectionManager.getRoutes().stream()
+                .map(route -> {
+                    PoolStats stats = outboundConnectionManager.getStats(route);
+                    return new HttpPoolStatsDTO.RouteStats(route.getTargetHost().toURI(),
+                            stats.getLeased(), stats.getAvailable(), stats.getPending(), stats.getMax());
+                })
+                .toList();
+        return ResponseEntity.ok(new HttpPoolStatsDTO(
+                total.getLeased(), total.getAvailable(), total.getPending(), total.getMax(), routes));
+    }
+
+    /**
+     * Coalescing of identical in-flight embedding and first-turn chat calls
+     * GET /api/admin/metrics/single-flight
+     */
+    @GetMapping("/single-flight")
+    public ResponseEntity<Map<String, SingleFlightStatsDTO>> getSingleFlightStats() {
+        return ResponseEntity.ok(Map.of(
+                "embedding", SingleFlightStatsDTO.of(embeddingClient.getSingleFlight()),
+                "chat", SingleFlightStatsDTO.of(ragChatService.getFirstTurnSingleFlight())));
+    }
+
+    /**
+     * Bulkhead usage and circuit breaker state per dependency (Azure chat, Azure embeddings, Chroma)
+     * GET /api/admin/metrics/downstreams
+     */
+    @GetMapping("/downstreams")
+    public ResponseEntity<List<DownstreamStatsDTO>> getDownstreamStats() {
+        return ResponseEntity.ok(downstreamGuards.all().stream().map(DownstreamStatsDTO::of).toList());
+    }
+}
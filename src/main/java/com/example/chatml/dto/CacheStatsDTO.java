@@ -0,0 +1,23 @@
+package com.example.chatml.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CacheStatsDTO {
+    private long hits;
+    private long misses;
+    private double hitRate;
+    private int size;
+    private int maxSize;
+    private long evictions;
+
+    public static CacheStatsDTO of(long hits, long misses, int size, int maxSize, long evictions) {
+        long lookups = hits + misses;
+        double hitRate = lookups == 0 ? 0.0 : (double) hits / lookups;
+        return new CacheStatsDTO(hits, misses, hitRate, size, maxSize, evictions);
+    }
+}
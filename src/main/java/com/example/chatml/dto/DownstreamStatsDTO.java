@@ -0,0 +1,24 @@
+package com.example.chatml.dto;
+
+import com.example.chatml.service.DownstreamGuard;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DownstreamStatsDTO {
+    private String name;
+    private String circuit;
+    private int inFlight;
+    private int maxConcurrent;
+    private long calls;
+    private long failures;
+    private long rejected;
+
+    public static DownstreamStatsDTO of(DownstreamGuard guard) {
+        return new DownstreamStatsDTO(guard.getName(), guard.getState().name(), guard.getInFlight(),
+                guard.getMaxConcurrent(), guard.getCalls(), guard.getFailures(), guard.getRejected());
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.chatml.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class HttpPoolStatsDTO {
+    private int leased;
+    private int available;
+    private int pending;
+    private int max;
+    private List<RouteStats> routes;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class RouteStats {
+        private String route;
+        private int leased;
+        private int available;
+        private int pending;
+        private int max;
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.chatml.dto;
+
+import com.example.chatml.service.IngestionJob;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class IngestionJobDTO {
+    private String jobId;
+    private String state;
+    private Instant submittedAt;
+    private Instant startedAt;
+    private Instant finishedAt;
+    private int total;
+    private boolean sourceRead;
+    private int processed;
+    private int added;
+    private int updated;
+    private int deleted;
+    private int unchanged;
+    private int failed;
+    private int retries;
+    private double docsPerSecond;
+    private List<String> errors;
+
+    public static IngestionJobDTO of(IngestionJob job) {
+        return new IngestionJobDTO(job.getId(), job.getState().name(), job.getSubmittedAt(), job.getStartedAt(),
+                job.getFinishedAt(), job.getTotal(), job.isSourceRead(), job.getProcessed(), job.getAdded(), job.getUpdated(),
+                job.getDeleted(), job.getUnchanged(), job.getFailed(), job.getRetries(),
+                Math.round(job.getDocsPerSecond() * 10) / 10.0, job.getErrors());
+    }
+}
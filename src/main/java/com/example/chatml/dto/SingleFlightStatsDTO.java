@@ -0,0 +1,20 @@
+package com.example.chatml.dto;
+
+import com.example.chatml.service.SingleFlight;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SingleFlightStatsDTO {
+    private long executions;
+    private long coalesced;
+    private int inFlight;
+
+    public static SingleFlightStatsDTO of(SingleFlight<?, ?> singleFlight) {
+        return new SingleFlightStatsDTO(
+                singleFlight.getExecutions(), singleFlight.getCoalesced(), singleFlight.getInFlight());
+    }
+}
@@ -8,4 +8,10 @@ import lombok.Data;
 public class AzureChatCompletion {
     private String content;
     private int totalTokens;
-}
\ No newline at end of file
+    // The stream was cut off by the request deadline; content is what arrived before it
+    private boolean truncated;
+
+    public AzureChatCompletion(String content, int totalTokens) {
+        this(content, totalTokens, false);
+    }
+}
@@ -3,8 +3,15 @@ package com.example.chatml.model;
 import lombok.Data;
 import java.util.List;
 
+/**
+ * Either the full-history shape ({@code history} + {@code totalTokensUsedSoFar}) or the
+ * conversation shape: only the new {@code message}, plus the {@code conversationId} returned
+ * by the previous response (omit it to start a conversation).
+ */
 @Data
 public class ChatRequest {
     private List<ChatMessage> history;
     private int totalTokensUsedSoFar = 0;
-}
\ No newline at end of file
+    private String conversationId;
+    private String message;
+}
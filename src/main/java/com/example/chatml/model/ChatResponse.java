@@ -1,5 +1,6 @@
 package com.example.chatml.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.Data;
 import lombok.AllArgsConstructor;
 import lombok.NoArgsConstructor;
@@ -11,4 +12,14 @@ public class ChatResponse {
     private String answer;
     private int totalTokensUsed;
     private boolean limitReached;
-}
\ No newline at end of file
+    // Only set for requests using the conversation shape
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String conversationId;
+    // Only present (true) when the request deadline cut the answer short
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    private boolean partial;
+
+    public ChatResponse(String answer, int totalTokensUsed, boolean limitReached) {
+        this(answer, totalTokensUsed, limitReached, null, false);
+    }
+}
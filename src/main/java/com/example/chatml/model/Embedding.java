@@ -0,0 +1,105 @@
+package com.example.chatml.model;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Embedding vector backed by a primitive {@code float[]}, read from and written to JSON
+ * with Jackson's streaming API so no boxed {@code Double}/{@code Float} lists are created.
+ * The array is shared, not copied: treat it as read-only.
+ */
+public final class Embedding {
+
+    private final float[] values;
+
+    public Embedding(float[] values) {
+        this.values = values;
+    }
+
+    public float[] values() {
+        return values;
+    }
+
+    public int dimensions() {
+        return values.length;
+    }
+
+    /**
+     * Cosine similarity, or -1 when the dimensions differ.
+     */
+    public double cosineSimilarity(Embedding other) {
+        float[] a = values;
+        float[] b = other.values;
+        if (a.length != b.length) {
+            return -1;
+        }
+        double dot = 0;
+        double normA = 0;
+        double normB = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            normA += a[i] * a[i];
+            normB += b[i] * b[i];
+        }
+        return normA == 0 || normB == 0 ? 0 : dot / Math.sqrt(normA * normB);
+    }
+
+    /**
+     * Reads a JSON number array; the parser must be positioned on its START_ARRAY token.
+     */
+    public static Embedding read(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            throw new IOException("Expected embedding array but found " + parser.currentToken());
+        }
+        float[] buffer = new float[1536];
+        int size = 0;
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (size == buffer.length) {
+                buffer = Arrays.copyOf(buffer, size * 2);
+            }
+            buffer[size++] = parser.getFloatValue();
+        }
+        return new Embedding(size == buffer.length ? buffer : Arrays.copyOf(buffer, size));
+    }
+
+    /**
+     * Decodes a {@code encoding_format: base64} embedding: little-endian IEEE 754 floats.
+     */
+    public static Embedding fromBytes(byte[] bytes) throws IOException {
+        if (bytes.length % Float.BYTES != 0) {
+            throw new IOException("Base64 embedding has " + bytes.length + " bytes, not a multiple of " + Float.BYTES);
+        }
+        float[] values = new float[bytes.length / Float.BYTES];
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(values);
+        return new Embedding(values);
+    }
+
+    public void write(JsonGenerator generator) throws IOException {
+        generator.writeStartArray(values, values.length);
+        for (float value : values) {
+            generator.writeNumber(value);
+        }
+        generator.writeEndArray();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || (o instanceof Embedding other && Arrays.equals(values, other.values));
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(values);
+    }
+
+    @Override
+    public String toString() {
+        return "Embedding[" + values.length + " dims]";
+    }
+}
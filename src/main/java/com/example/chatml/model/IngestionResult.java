@@ -0,0 +1,15 @@
+package com.example.chatml.model;
+
+import java.util.List;
+
+/**
+ * Outcome of an ingestion run as a diff against what was already stored: documents added, updated
+ * (content changed), deleted (gone from the source) and unchanged (skipped), plus the ids the vector
+ * store rejected. Failed ids are retried on the next run.
+ */
+public record IngestionResult(int added, int updated, int deleted, int unchanged, List<String> failedIds) {
+
+    public boolean hasFailures() {
+        return !failedIds.isEmpty();
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.chatml.model;
+
+import java.time.Year;
+import java.util.Map;
+
+/**
+ * A stored document as returned by retrieval. {@code rank}, {@code year} and {@code current} are
+ * parsed from the metadata once, when the chunk is decoded or ingested, so sorting needs no
+ * lookups or parsing. {@code distance} is {@link Double#NaN} when the chunk does not come from
+ * a vector search.
+ */
+public record RetrievedChunk(String id, String document, Map<String, Object> metadata, double distance,
+                             int rank, int year, boolean current) {
+
+    /**
+     * Marks a missing or unparseable rank or year.
+     */
+    public static final int UNKNOWN = Integer.MIN_VALUE;
+
+    public static RetrievedChunk of(String id, String document, Map<String, Object> metadata, double distance) {
+        Map<String, Object> meta = metadata != null ? metadata : Map.of();
+        return new RetrievedChunk(id, document, meta, distance,
+                parseRank(meta.get("rank")), parseYear(meta), Boolean.parseBoolean(String.valueOf(meta.get("is_current"))));
+    }
+
+    public RetrievedChunk withDistance(double newDistance) {
+        return new RetrievedChunk(id, document, metadata, newDistance, rank, year, current);
+    }
+
+    public boolean hasRank() {
+        return rank != UNKNOWN;
+    }
+
+    public boolean hasYear() {
+        return year != UNKNOWN;
+    }
+
+    private static int parseRank(Object rank) {
+        if (rank instanceof Number number) {
+            return number.intValue();
+        }
+        if (rank instanceof String text) {
+            try {
+                return Integer.parseInt(text.trim());
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * start_year if numeric; otherwise the first four-digit number in "year", or the current year
+     * when it says "Present".
+     */
+    private static int parseYear(Map<String, Object> metadata) {
+        Object startYear = metadata.get("start_year");
+        if (startYear != null) {
+            try {
+                return Integer.parseInt(startYear.toString().trim());
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        Object year = metadata.get("year");
+        if (year == null) {
+            return UNKNOWN;
+        }
+        String text = year.toString();
+        if (text.toLowerCase().contains("present")) {
+            return Year.now().getValue();
+        }
+        for (int i = 0; i + 4 <= text.length(); i++) {
+            if (isDigits(text, i, 4)) {
+                return Integer.parseInt(text, i, i + 4, 10);
+            }
+        }
+        return UNKNOWN;
+    }
+
+    private static boolean isDigits(String text, int from, int length) {
+        for (int i = from; i < from + length; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
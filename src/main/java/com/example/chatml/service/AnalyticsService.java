@@ -1,19 +1,28 @@
 package com.example.chatml.service;
 
+import com.example.chatml.config.WorkerThreads;
 import com.example.chatml.dto.*;
 import com.example.chatml.entity.*;
 import com.example.chatml.repository.*;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -26,12 +35,48 @@ public class AnalyticsService {
     private final TrackingEventRepository eventRepository;
     private final QuestionRepository questionRepository;
     private final DailyStatsRepository dailyStatsRepository;
+    private final PlatformTransactionManager transactionManager;
+    private final WorkerThreads workerThreads;
+
+    @Value("${analytics.queue-capacity:10000}")
+    private int queueCapacity;
+
+    // One writer thread: session and daily counters are read, incremented and saved, so two events
+    // written at once would create duplicate sessions or lose increments
+    private ThreadPoolExecutor writer;
+    private TransactionTemplate transactionTemplate;
+
+    @PostConstruct
+    void init() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), workerThreads.factory("analytics-writer"));
+    }
+
+    @PreDestroy
+    void shutdown() throws InterruptedException {
+        // Queued events are still written; give up on them after a short grace period
+        writer.shutdown();
+        if (!writer.awaitTermination(5, TimeUnit.SECONDS)) {
+            log.warn("Dropping {} analytics events on shutdown", writer.shutdownNow().size());
+        }
+    }
     
     /**
-     * Track any event (page_view, question, link_click)
+     * Track any event (page_view, question, link_click).
+     * Queued for the analytics writer thread, so the request thread is not held by the database writes
+     * and events are written one at a time. Events are dropped when analytics.queue-capacity are waiting.
      */
-    @Transactional
     public void trackEvent(TrackingRequestDTO request) {
+        try {
+            writer.execute(() -> transactionTemplate.executeWithoutResult(status -> writeEvent(request)));
+        } catch (RejectedExecutionException e) {
+            log.warn("Analytics queue full, dropping {} event for session: {}",
+                    request.getEventType(), request.getSessionId());
+        }
+    }
+
+    private void writeEvent(TrackingRequestDTO request) {
         try {
             // Get or create session
             UserSession session = sessionRepository.findBySessionId(request.getSessionId())
@@ -0,0 +1,161 @@
+package com.example.chatml.service;
+
+import com.example.chatml.model.ChatResponse;
+import com.example.chatml.model.Embedding;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Semantic cache of first-turn answers. A question is served from the cache when its embedding
+ * has a cosine similarity of at least {@code rag.answer-cache.similarity-threshold} with a
+ * previously answered one. Entries expire after a TTL and are dropped whenever the portfolio is re-ingested.
+ */
+@Slf4j
+@Component
+public class AnswerCache {
+
+    @Value("${rag.answer-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${rag.answer-cache.similarity-threshold:0.95}")
+    private double similarityThreshold;
+
+    @Value("${rag.answer-cache.ttl-minutes:60}")
+    private long ttlMinutes;
+
+    @Value("${rag.answer-cache.max-entries:500}")
+    private int maxEntries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    // Oldest entries first; a linear scan is cheap at this size and needs no index maintenance.
+    private final Deque<Entry> entries = new ArrayDeque<>();
+
+    private record Entry(float[] unitVector, ChatResponse response, long expiresAt) {
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the cached response closest to the given question embedding, or null if none is similar enough.
+     */
+    public ChatResponse lookup(Embedding embedding) {
+        if (!enabled) {
+            return null;
+        }
+        float[] query = normalize(embedding);
+        long now = System.currentTimeMillis();
+
+        ChatResponse best = null;
+        double bestSimilarity = similarityThreshold;
+        synchronized (entries) {
+            Iterator<Entry> it = entries.iterator();
+            while (it.hasNext()) {
+                Entry entry = it.next();
+                if (entry.expiresAt() <= now) {
+                    it.remove();
+                    evictions.incrementAndGet();
+                    continue;
+                }
+                double similarity = dot(query, entry.unitVector());
+                if (similarity >= bestSimilarity) {
+                    bestSimilarity = similarity;
+                    best = entry.response();
+                }
+            }
+        }
+
+        if (best != null) {
+            hits.incrementAndGet();
+            log.info("Answer cache hit (similarity {})", String.format("%.4f", bestSimilarity));
+        } else {
+            misses.incrementAndGet();
+        }
+        return best;
+    }
+
+    public void put(Embedding embedding, ChatResponse response) {
+        if (!enabled) {
+            return;
+        }
+        Entry entry = new Entry(normalize(embedding), response,
+                System.currentTimeMillis() + ttlMinutes * 60_000L);
+        synchronized (entries) {
+            entries.addLast(entry);
+            while (entries.size() > maxEntries) {
+                entries.removeFirst();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Drops every cached answer, e.g. after the portfolio data changed.
+     */
+    public void invalidateAll() {
+        synchronized (entries) {
+            if (!entries.isEmpty()) {
+                log.info("Invalidating {} cached answers", entries.size());
+                entries.clear();
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    private static float[] normalize(Embedding embedding) {
+        float[] vector = embedding.values().clone();
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        if (norm > 0) {
+            float scale = (float) (1.0 / Math.sqrt(norm));
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] *= scale;
+            }
+        }
+        return vector;
+    }
+
+    private static double dot(float[] a, float[] b) {
+        if (a.length != b.length) {
+            return -1;
+        }
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+}
@@ -1,19 +1,46 @@
 package com.example.chatml.service;
 
 import com.example.chatml.model.AzureChatCompletion;
+import com.example.chatml.model.ChatMessage;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
+import org.springframework.http.client.ClientHttpRequest;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.RestTemplate;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 @Component
 @RequiredArgsConstructor
 public class AzureChatClient {
-    private final RestTemplate restTemplate = new RestTemplate();
+    private final RestTemplate restTemplate;
+    private final ChatTokenizer tokenizer;
+    private final DownstreamGuards downstreamGuards;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<RequestTemplate, byte[]> templates = new ConcurrentHashMap<>();
+
+    private static final double TEMPERATURE = 0.2;
+    private static final int MAX_TEMPLATES = 32;
+
+    private URI chatUri;
+    private HttpHeaders chatHeaders;
 
     @Value("${azure.openai.base-url}")
     private String baseUrl;
@@ -23,6 +50,9 @@ public class AzureChatClient {
     private String chatApiVersion;
     @Value("${azure.openai.chatDeployment}")
     private String chatDeployment;
+    // stream_options.include_usage needs api-version 2024-09-01-preview or newer
+    @Value("${azure.openai.stream-include-usage:false}")
+    private boolean streamIncludeUsage;
 
     public String chat(String prompt) {
         String url = String.format("%s/openai/deployments/%s/chat/completions?api-version=%s",
@@ -42,51 +72,178 @@ public class AzureChatClient {
         headers.set("api-key", apiKey);
 
         HttpEntity<Map<String, Object>> entity = new HttpEntity<>(body, headers);
-        Map<String, Object> response = restTemplate.postForObject(url, entity, Map.class);
+        Map<String, Object> response =
+                downstreamGuards.chat().call(() -> restTemplate.postForObject(url, entity, Map.class));
         Map<String, Object> firstChoice = ((List<Map<String, Object>>) response.get("choices")).get(0);
         Map<String, Object> message = (Map<String, Object>) firstChoice.get("message");
         return message.get("content").toString();
     }
 
-    public AzureChatCompletion chatWithMessages(java.util.List<com.example.chatml.model.ChatMessage> messages) {
-        String url = String.format("%s/openai/deployments/%s/chat/completions?api-version=%s",
-                baseUrl, chatDeployment, chatApiVersion);
-
-        java.util.List<java.util.Map<String, String>> wireMessages = new java.util.ArrayList<>();
-        for (var m : messages) {
-            wireMessages.add(java.util.Map.of("role", m.getRole(), "content", m.getContent()));
-        }
-
-        java.util.Map<String, Object> body = java.util.Map.of(
-                "messages", wireMessages,
-                "temperature", 0.2
-        );
+    /**
+     * Static part of a chat completion body, serialized once per (system prompt, streaming) pair:
+     * {@code {"temperature":0.2,["stream":true,...,]"messages":[{system message}}. The remaining
+     * messages and the closing {@code ]}} are appended per request.
+     */
+    private record RequestTemplate(String systemPrompt, boolean stream) {
+    }
 
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.set("api-key", apiKey);
+    @PostConstruct
+    void init() {
+        chatUri = URI.create(String.format("%s/openai/deployments/%s/chat/completions?api-version=%s",
+                baseUrl, chatDeployment, chatApiVersion));
+        chatHeaders = new HttpHeaders();
+        chatHeaders.setContentType(MediaType.APPLICATION_JSON);
+        chatHeaders.set("api-key", apiKey);
+    }
 
-        HttpEntity<java.util.Map<String, Object>> entity = new HttpEntity<>(body, headers);
-        java.util.Map<String, Object> response = restTemplate.postForObject(url, entity, java.util.Map.class);
+    public AzureChatCompletion chatWithMessages(List<ChatMessage> messages) {
+        JsonNode response = downstreamGuards.chat().call(() -> restTemplate.execute(chatUri, HttpMethod.POST,
+                request -> writeChatBody(request, messages, false),
+                r -> objectMapper.readTree(r.getBody())));
 
-        if (response == null || response.get("choices") == null) {
+        if (response == null || !response.has("choices")) {
             throw new RuntimeException("Azure chat model returned no response");
         }
 
         // 1. Extract Content
-        java.util.Map<String, Object> firstChoice = ((java.util.List<java.util.Map<String, Object>>) response.get("choices")).get(0);
-        java.util.Map<String, Object> message = (java.util.Map<String, Object>) firstChoice.get("message");
-        String content = String.valueOf(message.get("content"));
+        JsonNode message = response.path("choices").path(0).path("message");
+        String content = message.path("content").asText();
 
         // 2. Extract Token Usage
-        java.util.Map<String, Object> usage = (java.util.Map<String, Object>) response.get("usage");
-        int totalTokens = 0;
-        if (usage != null && usage.containsKey("total_tokens")) {
-            // Note: Azure API returns this as an Integer
-            totalTokens = (Integer) usage.get("total_tokens");
-        }
+        int totalTokens = response.path("usage").path("total_tokens").asInt(0);
 
         // 3. Return the composite object
         return new AzureChatCompletion(content, totalTokens);
     }
+
+    /**
+     * Streaming variant of {@link #chatWithMessages} ("stream": true). Each content delta is passed to
+     * {@code onDelta} as it arrives; the returned completion holds the full text and the token usage.
+     */
+    public AzureChatCompletion streamChatWithMessages(List<ChatMessage> messages, Consumer<String> onDelta) {
+        // The bulkhead slot is held until the stream ends
+        return downstreamGuards.chat().call(() -> restTemplate.execute(chatUri, HttpMethod.POST, request -> {
+            request.getHeaders().setAccept(List.of(MediaType.TEXT_EVENT_STREAM));
+            writeChatBody(request, messages, true);
+        }, response -> readStream(response.getBody(), messages, onDelta)));
+    }
+
+    private void writeChatBody(ClientHttpRequest request, List<ChatMessage> messages, boolean stream)
+            throws IOException {
+        request.getHeaders().putAll(chatHeaders);
+        OutputStream out = request.getBody();
+
+        int first = 0;
+        String systemPrompt = null;
+        if (!messages.isEmpty() && "system".equals(messages.get(0).getRole())) {
+            systemPrompt = messages.get(0).getContent();
+            first = 1;
+        }
+        out.write(template(new RequestTemplate(systemPrompt, stream)));
+
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            generator.setRootValueSeparator(null);
+            for (int i = first; i < messages.size(); i++) {
+                if (i > 0) {
+                    generator.writeRaw(',');
+                }
+                writeMessage(generator, messages.get(i));
+            }
+            generator.writeRaw("]}");
+        }
+    }
+
+    private byte[] template(RequestTemplate key) {
+        byte[] template = templates.get(key);
+        if (template != null) {
+            return template;
+        }
+        // Prompts are a handful of constants; the bound only guards against unexpected dynamic ones
+        if (templates.size() >= MAX_TEMPLATES) {
+            templates.clear();
+        }
+        return templates.computeIfAbsent(key, this::serializeTemplate);
+    }
+
+    private byte[] serializeTemplate(RequestTemplate key) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(buffer)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT)) {
+            generator.writeStartObject();
+            generator.writeNumberField("temperature", TEMPERATURE);
+            if (key.stream()) {
+                generator.writeBooleanField("stream", true);
+                if (streamIncludeUsage) {
+                    generator.writeObjectFieldStart("stream_options");
+                    generator.writeBooleanField("include_usage", true);
+                    generator.writeEndObject();
+                }
+            }
+            generator.writeArrayFieldStart("messages");
+            if (key.systemPrompt() != null) {
+                writeMessage(generator, new ChatMessage("system", key.systemPrompt()));
+            }
+            // The messages array and the body object are left open for the per-request part
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.toByteArray();
+    }
+
+    private static void writeMessage(JsonGenerator generator, ChatMessage message) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("role", message.getRole());
+        generator.writeStringField("content", message.getContent());
+        generator.writeEndObject();
+    }
+
+    private AzureChatCompletion readStream(InputStream body, List<ChatMessage> messages, Consumer<String> onDelta)
+            throws IOException {
+        StringBuilder content = new StringBuilder();
+        int totalTokens = 0;
+
+        boolean truncated = false;
+        Deadline deadline = Deadline.current();
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        String line;
+        try {
+            while ((line = reader.readLine()) != null) {
+                if (!line.startsWith("data:")) {
+                    continue;
+                }
+                String data = line.substring(5).trim();
+                if ("[DONE]".equals(data)) {
+                    break;
+                }
+
+                JsonNode chunk = objectMapper.readTree(data);
+                JsonNode choices = chunk.path("choices");
+                if (!choices.isEmpty()) {
+                    JsonNode delta = choices.get(0).path("delta").path("content");
+                    if (delta.isTextual() && !delta.asText().isEmpty()) {
+                        content.append(delta.asText());
+                        onDelta.accept(delta.asText());
+                    }
+                }
+                // Only sent as the last chunk, and only when stream_options.include_usage is on
+                JsonNode usage = chunk.path("usage");
+                if (usage.has("total_tokens")) {
+                    totalTokens = usage.get("total_tokens").asInt();
+                }
+            }
+        } catch (IOException e) {
+            // The request deadline aborted the stream: keep what the client has already seen
+            if (deadline == null || !deadline.isExpired() || content.isEmpty()) {
+                throw e;
+            }
+            truncated = true;
+        }
+
+        if (totalTokens == 0) {
+            // No usage chunk: count prompt and completion with the local tokenizer
+            totalTokens = tokenizer.countPromptTokens(messages) + tokenizer.countTokens(content.toString());
+        }
+        return new AzureChatCompletion(content.toString(), totalTokens, truncated);
+    }
 }
@@ -1,18 +1,34 @@
 package com.example.chatml.service;
 
+import com.example.chatml.model.Embedding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.RestTemplate;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 @Component
 @RequiredArgsConstructor
 public class AzureEmbeddingClient {
-    private final RestTemplate restTemplate = new RestTemplate();
+    private final RestTemplate restTemplate;
+    private final EmbeddingCache embeddingCache;
+    private final DownstreamGuards downstreamGuards;
+    private final JsonFactory jsonFactory = new JsonFactory();
+    // Concurrent misses for the same cache key share one Azure call
+    private final SingleFlight<String, Embedding> inFlight = new SingleFlight<>();
 
     @Value("${azure.openai.base-url}")
     private String baseUrl;
@@ -22,20 +38,166 @@ public class AzureEmbeddingClient {
     private String embeddingApiVersion;
     @Value("${azure.openai.embeddingDeployment}")
     private String embeddingDeployment;
+    // "float" (JSON number arrays) or "base64" (packed little-endian floats, about a quarter of the bytes)
+    @Value("${azure.openai.embedding-encoding:float}")
+    private String embeddingEncoding;
+    // Shortened embeddings (text-embedding-3 models only); 0 keeps the model's native size
+    @Value("${azure.openai.embedding-dimensions:0}")
+    private int embeddingDimensions;
+    // Inputs per embeddings request when embedding in bulk (Azure accepts up to 2048)
+    @Value("${azure.openai.embedding-batch-size:16}")
+    private int embeddingBatchSize;
 
-    public List<Double> getEmbedding(String text) {
+    public Embedding getEmbedding(String text) {
+        String cacheKey = embeddingCache.key(text, embeddingDeployment, embeddingDimensions);
+        Embedding cached = embeddingCache.get(cacheKey);
+        if (cached != null) {
+            return cached;
+        }
+        return inFlight.execute(cacheKey, () -> {
+            // A caller that missed the cache just before the previous leader finished would otherwise refetch
+            Embedding fetched = embeddingCache.get(cacheKey);
+            if (fetched == null) {
+                fetched = fetchEmbedding(text);
+                embeddingCache.put(cacheKey, fetched);
+            }
+            return fetched;
+        });
+    }
+
+    /**
+     * Embeds many texts, returned in input order. Cached texts are served from the cache and the
+     * rest are sent as input arrays of up to {@code embeddingBatchSize} texts per request.
+     */
+    public List<Embedding> getEmbeddings(List<String> texts) {
+        Embedding[] results = new Embedding[texts.size()];
+        // Misses by cache key, so a text repeated in the batch is only sent once
+        Map<String, List<Integer>> positionsByKey = new LinkedHashMap<>();
+        Map<String, String> textByKey = new HashMap<>();
+        for (int i = 0; i < texts.size(); i++) {
+            String cacheKey = embeddingCache.key(texts.get(i), embeddingDeployment, embeddingDimensions);
+            Embedding cached = embeddingCache.get(cacheKey);
+            if (cached != null) {
+                results[i] = cached;
+            } else {
+                positionsByKey.computeIfAbsent(cacheKey, k -> new ArrayList<>()).add(i);
+                textByKey.putIfAbsent(cacheKey, texts.get(i));
+            }
+        }
+
+        List<String> missingKeys = new ArrayList<>(positionsByKey.keySet());
+        int batchSize = Math.max(1, embeddingBatchSize);
+        for (int from = 0; from < missingKeys.size(); from += batchSize) {
+            List<String> batchKeys = missingKeys.subList(from, Math.min(from + batchSize, missingKeys.size()));
+            List<String> batchTexts = batchKeys.stream().map(textByKey::get).toList();
+            List<Embedding> embeddings = fetchEmbeddings(batchTexts);
+            for (int j = 0; j < batchKeys.size(); j++) {
+                Embedding embedding = embeddings.get(j);
+                embeddingCache.put(batchKeys.get(j), embedding);
+                for (int position : positionsByKey.get(batchKeys.get(j))) {
+                    results[position] = embedding;
+                }
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    public SingleFlight<String, Embedding> getSingleFlight() {
+        return inFlight;
+    }
+
+    private Embedding fetchEmbedding(String text) {
+        return fetchEmbeddings(List.of(text)).get(0);
+    }
+
+    /**
+     * One embeddings request for all of {@code texts}; a single text is sent as a plain string input.
+     */
+    private List<Embedding> fetchEmbeddings(List<String> texts) {
         String url = String.format("%s/openai/deployments/%s/embeddings?api-version=%s",
                 baseUrl, embeddingDeployment, embeddingApiVersion);
         System.out.println("Attempting embedding URL: " + url);
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.set("api-key", apiKey);
 
-        HttpEntity<Map<String, Object>> entity =
-                new HttpEntity<>(Map.of("input", text), headers);
+        // Request and response are streamed so the vector goes straight into a float[]
+        List<Embedding> embeddings = downstreamGuards.embedding().call(() ->
+                restTemplate.execute(url, HttpMethod.POST, request -> {
+                    request.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+                    request.getHeaders().set("api-key", apiKey);
+                    try (JsonGenerator generator = jsonFactory.createGenerator(request.getBody())) {
+                        generator.writeStartObject();
+                        if (texts.size() == 1) {
+                            generator.writeStringField("input", texts.get(0));
+                        } else {
+                            generator.writeArrayFieldStart("input");
+                            for (String text : texts) {
+                                generator.writeString(text);
+                            }
+                            generator.writeEndArray();
+                        }
+                        if ("base64".equalsIgnoreCase(embeddingEncoding)) {
+                            generator.writeStringField("encoding_format", "base64");
+                        }
+                        if (embeddingDimensions > 0) {
+                            generator.writeNumberField("dimensions", embeddingDimensions);
+                        }
+                        generator.writeEndObject();
+                    }
+                }, response -> readEmbeddings(response.getBody())));
+
+        if (embeddings == null || embeddings.size() != texts.size() || embeddings.contains(null)) {
+            throw new RuntimeException("Azure embedding model returned " + (embeddings == null ? 0 : embeddings.size())
+                    + " embeddings for " + texts.size() + " inputs");
+        }
+        return embeddings;
+    }
+
+    /**
+     * Persists the embedding cache, if a cache file is configured.
+     */
+    public void flushCache() {
+        embeddingCache.flush();
+    }
 
-        Map<String, Object> response = restTemplate.postForObject(url, entity, Map.class);
-        Map<String, Object> data = ((List<Map<String, Object>>) response.get("data")).get(0);
-        return (List<Double>) data.get("embedding");
+    /**
+     * Reads {"data": [{"index": i, "embedding": [...]}, ...]} and returns the vectors in index order.
+     * An embedding may be a number array or, with base64 encoding, a string.
+     */
+    private List<Embedding> readEmbeddings(InputStream body) throws IOException {
+        List<Embedding> embeddings = new ArrayList<>();
+        try (JsonParser parser = jsonFactory.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return embeddings;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if (!"data".equals(field) || value != JsonToken.START_ARRAY) {
+                    parser.skipChildren();
+                    continue;
+                }
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    int index = embeddings.size();
+                    Embedding embedding = null;
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String itemField = parser.currentName();
+                        parser.nextToken();
+                        if ("index".equals(itemField)) {
+                            index = parser.getIntValue();
+                        } else if ("embedding".equals(itemField)) {
+                            embedding = parser.currentToken() == JsonToken.VALUE_STRING
+                                    ? Embedding.fromBytes(parser.getBinaryValue())
+                                    : Embedding.read(parser);
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                    while (embeddings.size() <= index) {
+                        embeddings.add(null);
+                    }
+                    embeddings.set(index, embedding);
+                }
+            }
+        }
+        return embeddings;
     }
 }
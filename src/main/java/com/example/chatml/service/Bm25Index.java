@@ -0,0 +1,277 @@
+package com.example.chatml.service;
+
+import com.example.chatml.config.WorkerThreads;
+import com.example.chatml.model.RetrievedChunk;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * In-process BM25 inverted index over the same document text that is embedded, so questions naming
+ * an exact technology or product ("Kafka", "Hedera", "SonarQube") find the sources that mention it.
+ * Ingestion keeps it up to date; after a restart it is hydrated from the vector store by a background
+ * task started with the application, so no search waits for the full fetch. Documents that ingestion
+ * adds or removes while that fetch runs keep their newer state instead of the snapshot's.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class Bm25Index {
+
+    // Letters and digits, plus '+' and '#' so "c++" and "c#" survive as terms
+    private static final Pattern TOKEN_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}+#]+");
+
+    private static final Set<String> STOP_WORDS = Set.of(
+            "a", "about", "an", "and", "are", "as", "at", "be", "by", "can", "did", "do", "does", "for", "from",
+            "have", "has", "how", "i", "in", "is", "it", "me", "my", "of", "on", "or", "tell", "that", "the",
+            "this", "to", "used", "use", "was", "were", "what", "when", "where", "which", "who", "why", "with",
+            "you", "your");
+
+    private final VectorStore vectorStore;
+    private final WorkerThreads workerThreads;
+
+    @Value("${rag.bm25.k1:1.2}")
+    private double k1;
+
+    @Value("${rag.bm25.b:0.75}")
+    private double b;
+
+    @Value("${rag.bm25.hydrate-retry-ms:60000}")
+    private long hydrateRetryMs;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, IndexedDocument> documents = new HashMap<>();
+    // term -> (document id -> term frequency)
+    private final Map<String, Map<String, Integer>> postings = new HashMap<>();
+    private long totalLength;
+
+    // Ids added or removed while a hydration fetch runs (null otherwise); the snapshot skips them
+    private Set<String> changedDuringHydration;
+
+    private ScheduledExecutorService hydrator;
+
+    private record IndexedDocument(RetrievedChunk chunk, Map<String, Integer> termFrequencies, int length) {
+    }
+
+    @PostConstruct
+    void init() {
+        hydrator = Executors.newSingleThreadScheduledExecutor(workerThreads.factory("bm25-hydrate"));
+        hydrator.execute(this::hydrateOrRetry);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        hydrator.shutdownNow();
+    }
+
+    public void addOrUpdate(String id, String text, Map<String, Object> metadata) {
+        IndexedDocument doc = index(RetrievedChunk.of(id, text, metadata, Double.NaN));
+        lock.writeLock().lock();
+        try {
+            putLocked(doc);
+            if (changedDuringHydration != null) {
+                changedDuringHydration.add(id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(String id) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(id);
+            if (changedDuringHydration != null) {
+                changedDuringHydration.add(id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Top {@code topK} documents for the query terms that match the where filter, best first.
+     */
+    public List<RetrievedChunk> search(String query, int topK, Map<String, Object> whereFilter) {
+        Set<String> terms = new LinkedHashSet<>(tokenize(query));
+        if (terms.isEmpty() || topK <= 0) {
+            return Collections.emptyList();
+        }
+
+        lock.readLock().lock();
+        try {
+            int n = documents.size();
+            if (n == 0) {
+                return Collections.emptyList();
+            }
+            double avgLength = (double) totalLength / n;
+
+            Map<String, Double> scores = new HashMap<>();
+            Map<String, Boolean> allowed = new HashMap<>();
+            for (String term : terms) {
+                Map<String, Integer> posting = postings.get(term);
+                if (posting == null) {
+                    continue;
+                }
+                double idf = Math.log(1 + (n - posting.size() + 0.5) / (posting.size() + 0.5));
+                posting.forEach((id, tf) -> {
+                    IndexedDocument doc = documents.get(id);
+                    if (!allowed.computeIfAbsent(id, k -> MetadataFilter.matches(whereFilter, doc.chunk().metadata()))) {
+                        return;
+                    }
+                    double norm = tf + k1 * (1 - b + b * doc.length() / avgLength);
+                    scores.merge(id, idf * tf * (k1 + 1) / norm, Double::sum);
+                });
+            }
+
+            PriorityQueue<Map.Entry<String, Double>> best = new PriorityQueue<>(Map.Entry.comparingByValue());
+            for (Map.Entry<String, Double> entry : scores.entrySet()) {
+                best.add(entry);
+                if (best.size() > topK) {
+                    best.poll();
+                }
+            }
+            List<RetrievedChunk> results = new ArrayList<>(best.size());
+            while (!best.isEmpty()) {
+                results.add(documents.get(best.poll().getKey()).chunk());
+            }
+            Collections.reverse(results);
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return documents.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static IndexedDocument index(RetrievedChunk chunk) {
+        Map<String, Integer> termFrequencies = new HashMap<>();
+        int length = 0;
+        for (String term : tokenize(chunk.document())) {
+            termFrequencies.merge(term, 1, Integer::sum);
+            length++;
+        }
+        return new IndexedDocument(chunk, termFrequencies, length);
+    }
+
+    private void putLocked(IndexedDocument doc) {
+        String id = doc.chunk().id();
+        removeLocked(id);
+        documents.put(id, doc);
+        totalLength += doc.length();
+        doc.termFrequencies().forEach((term, tf) -> postings.computeIfAbsent(term, t -> new HashMap<>()).put(id, tf));
+    }
+
+    private void removeLocked(String id) {
+        IndexedDocument previous = documents.remove(id);
+        if (previous == null) {
+            return;
+        }
+        totalLength -= previous.length();
+        for (String term : previous.termFrequencies().keySet()) {
+            Map<String, Integer> posting = postings.get(term);
+            posting.remove(id);
+            if (posting.isEmpty()) {
+                postings.remove(term);
+            }
+        }
+    }
+
+    private void hydrateOrRetry() {
+        if (!hydrate()) {
+            hydrator.schedule(this::hydrateOrRetry, hydrateRetryMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Loads the stored documents, so lexical search also works for data ingested before a restart.
+     * Ids that were added or removed while the documents were being fetched are left as they are:
+     * the snapshot may predate those changes. Returns false when the vector store could not be read
+     * (e.g. Chroma not reachable yet); the application retries after {@code hydrate-retry-ms}.
+     */
+    boolean hydrate() {
+        lock.writeLock().lock();
+        try {
+            changedDuringHydration = new HashSet<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        List<RetrievedChunk> stored;
+        try {
+            stored = vectorStore.getAllDocuments();
+        } catch (RuntimeException e) {
+            lock.writeLock().lock();
+            try {
+                changedDuringHydration = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            log.warn("Could not hydrate BM25 index, lexical search covers ingested documents only: {}", e.getMessage());
+            return false;
+        }
+
+        List<IndexedDocument> indexed = new ArrayList<>(stored.size());
+        for (RetrievedChunk chunk : stored) {
+            if (chunk.id() != null && chunk.document() != null) {
+                indexed.add(index(chunk));
+            }
+        }
+        int skipped = 0;
+        lock.writeLock().lock();
+        try {
+            for (IndexedDocument doc : indexed) {
+                if (changedDuringHydration.contains(doc.chunk().id())) {
+                    skipped++;
+                } else {
+                    putLocked(doc);
+                }
+            }
+            changedDuringHydration = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("BM25 index hydrated with {} documents from the vector store, {} skipped as changed during the fetch",
+                indexed.size() - skipped, skipped);
+        return true;
+    }
+
+    static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null) {
+            return terms;
+        }
+        for (String token : TOKEN_SEPARATOR.split(text.toLowerCase(Locale.ROOT))) {
+            if (token.length() > 1 && !STOP_WORDS.contains(token)) {
+                terms.add(token);
+            }
+        }
+        return terms;
+    }
+}
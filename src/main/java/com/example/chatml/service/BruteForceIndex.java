@@ -0,0 +1,112 @@
+package com.example.chatml.service;
+
+import com.example.chatml.model.Embedding;
+import com.example.chatml.model.RetrievedChunk;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Exact nearest-neighbour search by scanning every stored vector. Used as a local copy of a remote
+ * collection, which is small enough (a portfolio) that a full scan takes well under a millisecond.
+ * Distances are computed in the remote collection's {@link Space}, so results found here carry the
+ * same kind of distance values as the collection's own and can be compared with them.
+ */
+public final class BruteForceIndex {
+
+    /**
+     * Chroma's distance functions (collection metadata "hnsw:space"), l2 being its default.
+     */
+    public enum Space {
+        // Squared Euclidean distance
+        L2,
+        // 1 - cosine similarity
+        COSINE,
+        // 1 - inner product
+        IP;
+
+        /**
+         * The space named by a collection's "hnsw:space" metadata; null or unknown means Chroma's default.
+         */
+        public static Space of(Object name) {
+            if (name instanceof String value) {
+                for (Space space : values()) {
+                    if (space.name().equals(value.toUpperCase(Locale.ROOT))) {
+                        return space;
+                    }
+                }
+            }
+            return L2;
+        }
+
+        double distance(Embedding a, Embedding b) {
+            if (this == COSINE) {
+                return 1 - a.cosineSimilarity(b);
+            }
+            float[] x = a.values();
+            float[] y = b.values();
+            if (x.length != y.length) {
+                return Double.MAX_VALUE;
+            }
+            double sum = 0;
+            for (int i = 0; i < x.length; i++) {
+                sum += this == L2 ? (double) (x[i] - y[i]) * (x[i] - y[i]) : (double) x[i] * y[i];
+            }
+            return this == L2 ? sum : 1 - sum;
+        }
+    }
+
+    private record Entry(Embedding embedding, RetrievedChunk chunk) {
+    }
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile Space space = Space.L2;
+
+    public void setSpace(Space space) {
+        this.space = space;
+    }
+
+    public Space getSpace() {
+        return space;
+    }
+
+    public void put(String id, Embedding embedding, RetrievedChunk chunk) {
+        entries.put(id, new Entry(embedding, chunk));
+    }
+
+    public void remove(String id) {
+        entries.remove(id);
+    }
+
+    public List<RetrievedChunk> search(Embedding query, int topK, Map<String, Object> whereFilter) {
+        if (topK <= 0) {
+            return Collections.emptyList();
+        }
+        Space space = this.space;
+        Comparator<RetrievedChunk> byDistance = Comparator.comparingDouble(RetrievedChunk::distance);
+        // Max-heap on distance, so the worst of the current top K is evicted first
+        PriorityQueue<RetrievedChunk> best = new PriorityQueue<>(byDistance.reversed());
+        for (Entry entry : entries.values()) {
+            if (!MetadataFilter.matches(whereFilter, entry.chunk().metadata())) {
+                continue;
+            }
+            best.add(entry.chunk().withDistance(space.distance(query, entry.embedding())));
+            if (best.size() > topK) {
+                best.poll();
+            }
+        }
+        List<RetrievedChunk> results = new ArrayList<>(best);
+        results.sort(byDistance);
+        return results;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.chatml.service;
+
+import com.example.chatml.model.ChatMessage;
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingType;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Local BPE token counter using the tiktoken encoding of the chat deployment
+ * ({@code azure.openai.tokenizer-encoding}), so prompt sizes are known before calling Azure.
+ */
+@Slf4j
+@Component
+public class ChatTokenizer {
+
+    // Chat format overhead: every message is wrapped in role/separator tokens,
+    // and the reply is primed with a few more.
+    private static final int TOKENS_PER_MESSAGE = 3;
+    private static final int TOKENS_PER_REPLY = 3;
+
+    @Value("${azure.openai.tokenizer-encoding:o200k_base}")
+    private String encodingName;
+
+    private Encoding encoding;
+
+    @PostConstruct
+    void init() {
+        EncodingType type = EncodingType.fromName(encodingName)
+                .orElseThrow(() -> new IllegalStateException("Unknown tokenizer encoding: " + encodingName));
+        encoding = Encodings.newLazyEncodingRegistry().getEncoding(type);
+        log.info("Using {} tokenizer for prompt budgeting", type.getName());
+    }
+
+    public int countTokens(String text) {
+        return text == null || text.isEmpty() ? 0 : encoding.countTokensOrdinary(text);
+    }
+
+    /**
+     * Prompt tokens for a chat completion request with these messages.
+     */
+    public int countPromptTokens(List<ChatMessage> messages) {
+        int tokens = TOKENS_PER_REPLY;
+        for (ChatMessage message : messages) {
+            tokens += TOKENS_PER_MESSAGE + countTokens(message.getRole()) + countTokens(message.getContent());
+        }
+        return tokens;
+    }
+}
@@ -1,19 +1,54 @@
 package com.example.chatml.service;
 
+import com.example.chatml.config.WorkerThreads;
+import com.example.chatml.model.Embedding;
+import com.example.chatml.model.RetrievedChunk;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.web.client.RequestCallback;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.HttpServerErrorException;
 import org.springframework.web.client.RestTemplate;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 
 @Component
 @RequiredArgsConstructor
-public class ChromaClient {
+@ConditionalOnProperty(name = "vector.store", havingValue = "chroma", matchIfMissing = true)
+public class ChromaClient implements VectorStore {
 
-    private final RestTemplate restTemplate = new RestTemplate();
+    private static final TypeReference<Map<String, Object>> METADATA_TYPE = new TypeReference<>() {};
+
+    private final RestTemplate restTemplate;
+    private final DownstreamGuards downstreamGuards;
+    private final WorkerThreads workerThreads;
+    private final ObjectMapper objectMapper = new ObjectMapper();
 
     @Value("${chroma.url}")
     private String chromaUrl;
@@ -21,7 +56,75 @@ public class ChromaClient {
     @Value("${chroma.collection}")
     private String collectionName;
 
+    // Hedged /query: a second identical query when the first is slower than the recent percentile
+    @Value("${chroma.hedge.enabled:true}")
+    private boolean hedgeEnabled;
+
+    @Value("${chroma.hedge.percentile:0.95}")
+    private double hedgePercentile;
+
+    @Value("${chroma.hedge.initial-delay-ms:250}")
+    private long hedgeInitialDelayMs;
+
+    @Value("${chroma.hedge.min-delay-ms:20}")
+    private long hedgeMinDelayMs;
+
+    @Value("${chroma.hedge.min-samples:20}")
+    private int hedgeMinSamples;
+
+    // Calls beyond the bulkhead would only be rejected by it, so it also bounds the hedging threads
+    // and the threads that send the filter groups of a batch side by side
+    @Value("${downstream.chroma.max-concurrent:10}")
+    private int maxConcurrentQueries;
+
+    // Local copy of the collection, searched by brute force while Chroma is unavailable. It is loaded
+    // in the background at startup, so no query waits for the full fetch, then kept up by every write.
+    @Value("${chroma.local-fallback.enabled:true}")
+    private boolean localFallbackEnabled;
+
+    @Value("${chroma.local-fallback.hydrate-retry-ms:60000}")
+    private long localCopyRetryMs;
+
+    // Documents per /upsert request during bulk ingestion
+    @Value("${chroma.upsert-batch-size:100}")
+    private int upsertBatchSize;
+
     private String collectionId;
+    private HedgedExecutor queryHedger;
+    // No queue: a group that cannot start at once is sent by the calling thread after its own group
+    private ThreadPoolExecutor groupExecutor;
+
+    private final BruteForceIndex localCopy = new BruteForceIndex();
+    // Guards writes to the local copy against the load applying its snapshot
+    private final ReentrantLock localCopyLock = new ReentrantLock();
+    // Ids written or deleted while the load's fetch runs (null otherwise); the snapshot skips them
+    private Set<String> changedDuringLoad;
+    private ScheduledExecutorService localCopyLoader;
+
+    @PostConstruct
+    void init() {
+        groupExecutor = new ThreadPoolExecutor(0, Math.max(1, maxConcurrentQueries), 60, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), workerThreads.factory("chroma-query-group"));
+        if (hedgeEnabled) {
+            queryHedger = new HedgedExecutor("chroma-query", hedgePercentile, hedgeInitialDelayMs,
+                    hedgeMinDelayMs, hedgeMinSamples, maxConcurrentQueries, workerThreads.factory("chroma-query-hedge"));
+        }
+        if (localFallbackEnabled) {
+            localCopyLoader = Executors.newSingleThreadScheduledExecutor(workerThreads.factory("chroma-local-copy"));
+            localCopyLoader.execute(this::loadLocalCopyOrRetry);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        groupExecutor.shutdownNow();
+        if (localCopyLoader != null) {
+            localCopyLoader.shutdownNow();
+        }
+        if (queryHedger != null) {
+            queryHedger.close();
+        }
+    }
 
     /**
      * Ensures the collection exists and stores its UUID
@@ -33,13 +136,16 @@ public class ChromaClient {
 
         String collectionUrl = chromaUrl + "/api/v1/collections/" + collectionName;
         try {
-            Map<String, Object> response = restTemplate.getForObject(collectionUrl, Map.class);
+            Map<String, Object> response = guard().call(() -> restTemplate.getForObject(collectionUrl, Map.class));
             System.out.println("Collection '" + collectionName + "' already exists.");
 
             this.collectionId = (String) response.get("id");
             if (this.collectionId == null) {
                 throw new RuntimeException("Collection response did not contain an 'id'");
             }
+            // The local copy ranks with the collection's distance function, so its distances mean the same
+            Object metadata = response.get("metadata");
+            localCopy.setSpace(BruteForceIndex.Space.of(metadata instanceof Map<?, ?> map ? map.get("hnsw:space") : null));
 
         } catch (HttpClientErrorException.NotFound e) {
             System.out.println("Collection '" + collectionName + "' not found (404). Creating...");
@@ -64,7 +170,8 @@ public class ChromaClient {
             String createUrl = chromaUrl + "/api/v1/collections";
             Map<String, String> createRequest = Map.of("name", collectionName);
 
-            Map<String, Object> response = restTemplate.postForObject(createUrl, createRequest, Map.class);
+            Map<String, Object> response =
+                    guard().call(() -> restTemplate.postForObject(createUrl, createRequest, Map.class));
             System.out.println("Successfully created collection: " + collectionName);
 
             this.collectionId = (String) response.get("id");
@@ -80,95 +187,486 @@ public class ChromaClient {
     /**
      * NEW: Upsert with metadata support
      */
-    public void addOrUpdateEmbedding(String id, List<Double> embedding, String documentText, Map<String, Object> metadata) {
+    @Override
+    public void addOrUpdateEmbedding(String id, Embedding embedding, String documentText, Map<String, Object> metadata) {
         getOrCreateCollection();
-        String upsertUrl = chromaUrl + "/api/v1/collections/" + this.collectionId + "/upsert";
+        try {
+            upsertBatch(List.of(new Document(id, embedding, documentText, metadata)));
+            System.out.println("✓ Upserted: " + id);
+        } catch (Exception e) {
+            System.err.println("Error upserting embedding: " + e.getMessage());
+            throw new RuntimeException(e);
+        }
+    }
 
-        List<Float> floatEmbedding = embedding.stream().map(Double::floatValue).toList();
+    /**
+     * Upserts up to {@code chroma.upsert-batch-size} documents per request. When Chroma rejects a
+     * batch (4xx) its documents are retried one by one so only the bad ones are reported; any other
+     * error fails the whole batch.
+     */
+    @Override
+    public List<String> upsertAll(List<Document> documents) {
+        List<String> failedIds = new ArrayList<>();
+        if (documents.isEmpty()) {
+            return failedIds;
+        }
+        try {
+            getOrCreateCollection();
+        } catch (RuntimeException e) {
+            documents.forEach(document -> failedIds.add(document.id()));
+            return failedIds;
+        }
 
-        Map<String, Object> body = Map.of(
-                "ids", List.of(id),
-                "embeddings", List.of(floatEmbedding),
-                "documents", List.of(documentText),
-                "metadatas", List.of(metadata != null ? metadata : Map.of("source", "portfolio"))
-        );
+        int batchSize = Math.max(1, upsertBatchSize);
+        for (int from = 0; from < documents.size(); from += batchSize) {
+            List<Document> batch = documents.subList(from, Math.min(from + batchSize, documents.size()));
+            try {
+                upsertBatch(batch);
+                System.out.println("✓ Upserted " + batch.size() + " documents");
+            } catch (HttpClientErrorException e) {
+                if (batch.size() == 1) {
+                    System.err.println("Error upserting " + batch.get(0).id() + ": " + e.getMessage());
+                    failedIds.add(batch.get(0).id());
+                    continue;
+                }
+                System.err.println("Batch upsert rejected (" + e.getMessage() + "), retrying one by one");
+                for (Document document : batch) {
+                    try {
+                        upsertBatch(List.of(document));
+                    } catch (RuntimeException single) {
+                        System.err.println("Error upserting " + document.id() + ": " + single.getMessage());
+                        failedIds.add(document.id());
+                    }
+                }
+            } catch (RuntimeException e) {
+                System.err.println("Error upserting batch of " + batch.size() + " documents: " + e.getMessage());
+                batch.forEach(document -> failedIds.add(document.id()));
+            }
+        }
+        return failedIds;
+    }
 
+    @Override
+    public void delete(Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        getOrCreateCollection();
+        String deleteUrl = chromaUrl + "/api/v1/collections/" + this.collectionId + "/delete";
         try {
-            restTemplate.postForObject(upsertUrl, body, Map.class);
-            System.out.println("✓ Upserted: " + id);
+            RequestCallback body = request -> writeJson(request, generator -> {
+                generator.writeStartObject();
+                generator.writeArrayFieldStart("ids");
+                for (String id : ids) {
+                    generator.writeString(id);
+                }
+                generator.writeEndArray();
+                generator.writeEndObject();
+            });
+            guard().call(() -> restTemplate.execute(deleteUrl, HttpMethod.POST, body, response -> null));
+            if (localFallbackEnabled) {
+                localCopyLock.lock();
+                try {
+                    ids.forEach(localCopy::remove);
+                    if (changedDuringLoad != null) {
+                        changedDuringLoad.addAll(ids);
+                    }
+                } finally {
+                    localCopyLock.unlock();
+                }
+            }
+            System.out.println("✓ Deleted " + ids.size() + " documents");
         } catch (Exception e) {
-            System.err.println("Error upserting embedding: " + e.getMessage());
+            System.err.println("Error deleting documents: " + e.getMessage());
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Sends the documents as the parallel ids/embeddings/documents/metadatas lists of one /upsert call.
+     */
+    private void upsertBatch(List<Document> documents) {
+        String upsertUrl = chromaUrl + "/api/v1/collections/" + this.collectionId + "/upsert";
+        List<Map<String, Object>> metadatas = new ArrayList<>(documents.size());
+        for (Document document : documents) {
+            metadatas.add(document.metadata() != null ? document.metadata() : Map.of("source", "portfolio"));
+        }
+
+        RequestCallback body = request -> writeJson(request, generator -> {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("ids");
+            for (Document document : documents) {
+                generator.writeString(document.id());
+            }
+            generator.writeEndArray();
+            generator.writeArrayFieldStart("embeddings");
+            for (Document document : documents) {
+                document.embedding().write(generator);
+            }
+            generator.writeEndArray();
+            generator.writeArrayFieldStart("documents");
+            for (Document document : documents) {
+                generator.writeString(document.text());
+            }
+            generator.writeEndArray();
+            generator.writeArrayFieldStart("metadatas");
+            for (Map<String, Object> metadata : metadatas) {
+                objectMapper.writeValue(generator, metadata);
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        });
+        guard().call(() -> restTemplate.execute(upsertUrl, HttpMethod.POST, body, response -> null));
+
+        if (localFallbackEnabled) {
+            localCopyLock.lock();
+            try {
+                for (int i = 0; i < documents.size(); i++) {
+                    Document document = documents.get(i);
+                    localCopy.put(document.id(), document.embedding(),
+                            RetrievedChunk.of(document.id(), document.text(), metadatas.get(i), Double.NaN));
+                    if (changedDuringLoad != null) {
+                        changedDuringLoad.add(document.id());
+                    }
+                }
+            } finally {
+                localCopyLock.unlock();
+            }
+        }
+    }
+
     /**
      * Backward compatibility: upsert without metadata
      */
-    public void addOrUpdateEmbedding(String id, List<Double> embedding, String documentText) {
+    public void addOrUpdateEmbedding(String id, Embedding embedding, String documentText) {
         addOrUpdateEmbedding(id, embedding, documentText, Map.of("source", "portfolio"));
     }
 
     /**
      * NEW: Query with metadata filtering and return structured results
      */
-    public List<Map<String, Object>> querySimilar(List<Double> embedding, int topK, Map<String, Object> whereFilter) {
-        getOrCreateCollection();
-        String queryUrl = chromaUrl + "/api/v1/collections/" + this.collectionId + "/query";
+    @Override
+    public List<RetrievedChunk> querySimilar(Embedding embedding, int topK, Map<String, Object> whereFilter) {
+        return querySimilarBatch(List.of(new Query(embedding, topK, whereFilter))).get(0);
+    }
 
-        List<Float> floatEmbedding = embedding.stream().map(Double::floatValue).toList();
+    /**
+     * Chroma applies one "where" and one "n_results" to all query_embeddings of a request, so queries
+     * are grouped by filter: each group is a single /query call asking for the largest topK of the group,
+     * and every query's rows are trimmed to its own topK. The groups are sent side by side (e.g. the
+     * filtered and unfiltered query of one retrieval), so a batch takes about one round trip.
+     * A group that Chroma cannot answer (circuit open, bulkhead full, error, timeout) is answered from
+     * the local copy, or yields empty results without one.
+     */
+    @Override
+    public List<List<RetrievedChunk>> querySimilarBatch(List<Query> queries) {
+        if (queries.isEmpty()) {
+            return List.of();
+        }
 
-        Map<String, Object> queryRequest = new HashMap<>();
-        queryRequest.put("query_embeddings", List.of(floatEmbedding));
-        queryRequest.put("n_results", topK);
-        queryRequest.put("include", List.of("documents", "distances", "metadatas"));
+        Map<Map<String, Object>, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < queries.size(); i++) {
+            Map<String, Object> where = queries.get(i).where();
+            groups.computeIfAbsent(where == null || where.isEmpty() ? Map.of() : where, w -> new ArrayList<>()).add(i);
+        }
 
-        // Add filter if provided
-        if (whereFilter != null && !whereFilter.isEmpty()) {
-            queryRequest.put("where", whereFilter);
+        // Each group writes only its own indexes
+        List<List<RetrievedChunk>> results = new ArrayList<>(Collections.nCopies(queries.size(), List.of()));
+        List<Map.Entry<Map<String, Object>, List<Integer>>> entries = new ArrayList<>(groups.entrySet());
+        List<Map.Entry<Map<String, Object>, List<Integer>>> inCallerThread = new ArrayList<>(List.of(entries.get(0)));
+        List<Future<?>> sent = new ArrayList<>();
+        for (Map.Entry<Map<String, Object>, List<Integer>> group : entries.subList(1, entries.size())) {
+            try {
+                sent.add(groupExecutor.submit(Deadline.wrap(() -> {
+                    queryGroup(queries, group.getKey(), group.getValue(), results);
+                    return null;
+                })));
+            } catch (RejectedExecutionException e) {
+                // Every thread busy: the caller sends this group after its own
+                inCallerThread.add(group);
+            }
+        }
+        for (Map.Entry<Map<String, Object>, List<Integer>> group : inCallerThread) {
+            queryGroup(queries, group.getKey(), group.getValue(), results);
         }
+        try {
+            for (Future<?> future : sent) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            // The caller no longer needs the results
+            sent.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Chroma query group failed", e.getCause());
+        }
+        return results;
+    }
 
+    /**
+     * One /query call for the queries at {@code indexes}, which share {@code whereFilter}.
+     */
+    private void queryGroup(List<Query> queries, Map<String, Object> whereFilter, List<Integer> indexes,
+                            List<List<RetrievedChunk>> results) {
+        if (!guard().isAvailable()) {
+            searchLocally(queries, indexes, results);
+            return;
+        }
+        int nResults = indexes.stream().mapToInt(i -> queries.get(i).topK()).max().orElse(0);
         try {
-            Map<String, Object> response = restTemplate.postForObject(queryUrl, queryRequest, Map.class);
+            getOrCreateCollection();
+            String queryUrl = chromaUrl + "/api/v1/collections/" + this.collectionId + "/query";
+            RequestCallback body = request -> writeJson(request, generator -> {
+                generator.writeStartObject();
+                generator.writeArrayFieldStart("query_embeddings");
+                for (int i : indexes) {
+                    queries.get(i).embedding().write(generator);
+                }
+                generator.writeEndArray();
+                generator.writeNumberField("n_results", nResults);
+                generator.writeArrayFieldStart("include");
+                generator.writeString("documents");
+                generator.writeString("distances");
+                generator.writeString("metadatas");
+                generator.writeEndArray();
+                // Add filter if provided
+                if (!whereFilter.isEmpty()) {
+                    generator.writeFieldName("where");
+                    objectMapper.writeValue(generator, whereFilter);
+                }
+                generator.writeEndObject();
+            });
+            // Each hedged attempt is a separate call for the bulkhead and the circuit breaker
+            List<List<RetrievedChunk>> rows = hedged(() -> guard().call(() -> restTemplate.execute(
+                    queryUrl, HttpMethod.POST, body, response -> readQueryResponse(response.getBody()))));
 
-            if (response == null) {
+            if (rows == null) {
                 System.err.println("Query returned null response");
-                return Collections.emptyList();
+                return;
             }
+            for (int row = 0; row < indexes.size() && row < rows.size(); row++) {
+                int index = indexes.get(row);
+                List<RetrievedChunk> chunks = rows.get(row);
+                results.set(index, chunks.size() > queries.get(index).topK()
+                        ? chunks.subList(0, queries.get(index).topK()) : chunks);
+            }
+        } catch (CancellationException e) {
+            // The caller no longer needs the result
+        } catch (DeadlineExceededException | DownstreamUnavailableException e) {
+            System.err.println("Chroma query abandoned: " + e.getMessage());
+            searchLocally(queries, indexes, results);
+        } catch (Exception e) {
+            System.err.println("Error querying embeddings: " + e.getMessage());
+            e.printStackTrace();
+            searchLocally(queries, indexes, results);
+        }
+    }
 
-            List<List<String>> docs = (List<List<String>>) response.get("documents");
-            List<List<Map<String, Object>>> metadatas = (List<List<Map<String, Object>>>) response.get("metadatas");
-            List<List<Double>> distances = (List<List<Double>>) response.get("distances");
+    private DownstreamGuard guard() {
+        return downstreamGuards.chroma();
+    }
 
-            if (docs == null || docs.isEmpty() || docs.get(0).isEmpty()) {
-                return Collections.emptyList();
-            }
+    private void searchLocally(List<Query> queries, List<Integer> indexes, List<List<RetrievedChunk>> results) {
+        if (!localFallbackEnabled) {
+            return;
+        }
+        System.out.println("Chroma unavailable - searching the local copy (" + localCopy.size() + " documents)");
+        for (int index : indexes) {
+            Query query = queries.get(index);
+            results.set(index, localCopy.search(query.embedding(), query.topK(), query.where()));
+        }
+    }
 
-            // Combine results into structured objects
-            List<Map<String, Object>> results = new ArrayList<>();
-            for (int i = 0; i < docs.get(0).size(); i++) {
-                Map<String, Object> result = new HashMap<>();
-                result.put("document", docs.get(0).get(i));
-                result.put("metadata", metadatas != null && !metadatas.isEmpty() ? metadatas.get(0).get(i) : null);
-                result.put("distance", distances != null && !distances.isEmpty() ? distances.get(0).get(i) : null);
-                results.add(result);
-            }
+    private void loadLocalCopyOrRetry() {
+        if (!loadLocalCopy()) {
+            localCopyLoader.schedule(this::loadLocalCopyOrRetry, localCopyRetryMs, TimeUnit.MILLISECONDS);
+        }
+    }
 
-            return results;
+    /**
+     * Loads the collection with its embeddings into the local copy, so the fallback also covers documents
+     * ingested before a restart. Ids written or deleted while the collection was being fetched are left
+     * as they are: the snapshot may predate those writes. Returns false when Chroma could not be read;
+     * the load is then retried after {@code hydrate-retry-ms}.
+     */
+    boolean loadLocalCopy() {
+        localCopyLock.lock();
+        try {
+            changedDuringLoad = new HashSet<>();
+        } finally {
+            localCopyLock.unlock();
+        }
+        JsonNode response;
+        try {
+            response = fetchAll(true);
+        } catch (RuntimeException e) {
+            localCopyLock.lock();
+            try {
+                changedDuringLoad = null;
+            } finally {
+                localCopyLock.unlock();
+            }
+            System.err.println("Could not load the local copy of the collection: " + e.getMessage());
+            return false;
+        }
 
-        } catch (Exception e) {
-            System.err.println("Error querying embeddings: " + e.getMessage());
-            e.printStackTrace();
-            return Collections.emptyList();
+        List<RetrievedChunk> chunks = toChunks(response);
+        JsonNode embeddings = response == null ? null : response.path("embeddings");
+        int loaded = 0;
+        localCopyLock.lock();
+        try {
+            for (int i = 0; i < chunks.size(); i++) {
+                RetrievedChunk chunk = chunks.get(i);
+                if (embeddings.path(i).isArray() && !changedDuringLoad.contains(chunk.id())) {
+                    localCopy.put(chunk.id(), new Embedding(objectMapper.convertValue(embeddings.get(i), float[].class)), chunk);
+                    loaded++;
+                }
+            }
+            changedDuringLoad = null;
+        } finally {
+            localCopyLock.unlock();
         }
+        System.out.println("Local copy of the collection loaded: " + loaded + " documents ("
+                + localCopy.getSpace().name().toLowerCase(Locale.ROOT) + " distance)");
+        return true;
+    }
+
+    /**
+     * Queries are reads, so they can safely be sent twice.
+     */
+    private <T> T hedged(Supplier<T> query) {
+        return queryHedger != null ? queryHedger.execute(query) : query.get();
     }
 
     /**
      * Backward compatibility: query without filter
      */
-    public List<String> querySimilar(List<Double> embedding, int topK) {
+    public List<String> querySimilar(Embedding embedding, int topK) {
         return querySimilar(embedding, topK, null).stream()
-                .map(r -> (String) r.get("document"))
+                .map(RetrievedChunk::document)
                 .toList();
     }
-}
\ No newline at end of file
+
+    /**
+     * Fetches every document of the collection (without embeddings). Unlike the query methods,
+     * failures are thrown so callers can retry instead of treating the collection as empty.
+     */
+    @Override
+    public List<RetrievedChunk> getAllDocuments() {
+        return toChunks(fetchAll(false));
+    }
+
+    private JsonNode fetchAll(boolean withEmbeddings) {
+        getOrCreateCollection();
+        String getUrl = chromaUrl + "/api/v1/collections/" + this.collectionId + "/get";
+        Map<String, Object> body = Map.of("include", withEmbeddings
+                ? List.of("documents", "metadatas", "embeddings") : List.of("documents", "metadatas"));
+        return guard().call(() -> restTemplate.postForObject(getUrl, body, JsonNode.class));
+    }
+
+    private List<RetrievedChunk> toChunks(JsonNode response) {
+        if (response == null) {
+            return Collections.emptyList();
+        }
+        JsonNode ids = response.path("ids");
+        JsonNode documents = response.path("documents");
+        JsonNode metadatas = response.path("metadatas");
+        List<RetrievedChunk> results = new ArrayList<>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            JsonNode metadata = metadatas.path(i);
+            results.add(RetrievedChunk.of(ids.get(i).asText(), documents.path(i).asText(null),
+                    metadata.isObject() ? objectMapper.convertValue(metadata, METADATA_TYPE) : null, Double.NaN));
+        }
+        return results;
+    }
+
+    @FunctionalInterface
+    private interface JsonWriter {
+        void write(JsonGenerator generator) throws IOException;
+    }
+
+    private void writeJson(ClientHttpRequest request, JsonWriter writer) throws IOException {
+        request.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(request.getBody())) {
+            writer.write(generator);
+        }
+    }
+
+    @FunctionalInterface
+    private interface JsonValueReader<T> {
+        T read(JsonParser parser) throws IOException;
+    }
+
+    /**
+     * Streams a /query response ({"documents": [[...]], "metadatas": [[...]], "distances": [[...]], ...})
+     * into result maps without materializing the whole body as nested lists.
+     */
+    private List<List<RetrievedChunk>> readQueryResponse(InputStream body) throws IOException {
+        List<List<String>> ids = List.of();
+        List<List<String>> documents = List.of();
+        List<List<Map<String, Object>>> metadatas = List.of();
+        List<List<Double>> distances = List.of();
+
+        try (JsonParser parser = objectMapper.getFactory().createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                switch (field) {
+                    case "ids" -> ids = readRows(parser, JsonParser::getValueAsString);
+                    case "documents" -> documents = readRows(parser, JsonParser::getValueAsString);
+                    case "metadatas" -> metadatas = readRows(parser, p ->
+                            p.currentToken() == JsonToken.VALUE_NULL ? null : objectMapper.readValue(p, METADATA_TYPE));
+                    case "distances" -> distances = readRows(parser, JsonParser::getDoubleValue);
+                    default -> parser.skipChildren();
+                }
+            }
+        }
+
+        // Combine each query's row into typed chunks; rank and year are parsed here, once
+        List<List<RetrievedChunk>> results = new ArrayList<>(documents.size());
+        for (int row = 0; row < documents.size(); row++) {
+            List<String> rowIds = row < ids.size() ? ids.get(row) : List.of();
+            List<String> rowDocuments = documents.get(row);
+            List<Map<String, Object>> rowMetadatas = row < metadatas.size() ? metadatas.get(row) : List.of();
+            List<Double> rowDistances = row < distances.size() ? distances.get(row) : List.of();
+
+            List<RetrievedChunk> chunks = new ArrayList<>(rowDocuments.size());
+            for (int i = 0; i < rowDocuments.size(); i++) {
+                chunks.add(RetrievedChunk.of(
+                        i < rowIds.size() ? rowIds.get(i) : null,
+                        rowDocuments.get(i),
+                        i < rowMetadatas.size() ? rowMetadatas.get(i) : null,
+                        i < rowDistances.size() && rowDistances.get(i) != null ? rowDistances.get(i) : Double.NaN));
+            }
+            results.add(chunks);
+        }
+        return results;
+    }
+
+    /**
+     * Reads a per-query [[...], [...]] field, one row per query embedding.
+     * The parser must be on the field's value; null values and null rows yield empty rows.
+     */
+    private static <T> List<List<T>> readRows(JsonParser parser, JsonValueReader<T> reader) throws IOException {
+        List<List<T>> rows = new ArrayList<>();
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return rows;
+        }
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            List<T> row = new ArrayList<>();
+            if (parser.currentToken() == JsonToken.START_ARRAY) {
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    row.add(reader.read(parser));
+                }
+            } else {
+                parser.skipChildren();
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+}
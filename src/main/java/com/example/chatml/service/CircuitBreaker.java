@@ -0,0 +1,96 @@
+package com.example.chatml.service;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Consecutive-failure circuit breaker. After {@code failureThreshold} failures in a row the circuit
+ * opens and calls are rejected without touching the dependency; once {@code openMillis} have passed
+ * a single probe call is let through (half-open), and its outcome closes or re-opens the circuit.
+ */
+public final class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private final LongSupplier nanoClock;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean probeInFlight;
+
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this(failureThreshold, openMillis, System::nanoTime);
+    }
+
+    /**
+     * With {@code nanoClock} as the time source, in the units of {@link System#nanoTime}.
+     */
+    CircuitBreaker(int failureThreshold, long openMillis, LongSupplier nanoClock) {
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openMillis * 1_000_000L;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Whether a call may go ahead now. Every permitted call must be followed by exactly one of
+     * {@link #onSuccess}, {@link #onFailure} or {@link #onIgnored}.
+     */
+    public synchronized boolean tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (nanoClock.getAsLong() - openedAt < openNanos) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                probeInFlight = true;
+                return true;
+            default:
+                if (probeInFlight) {
+                    return false;
+                }
+                probeInFlight = true;
+                return true;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        probeInFlight = false;
+    }
+
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = nanoClock.getAsLong();
+            probeInFlight = false;
+        }
+    }
+
+    /**
+     * The call ended without saying anything about the dependency's health (e.g. it was cancelled).
+     */
+    public synchronized void onIgnored() {
+        probeInFlight = false;
+    }
+
+    /**
+     * Whether {@link #tryAcquire} could currently let a call through, without claiming the probe.
+     */
+    public synchronized boolean isCallPermitted() {
+        return switch (state) {
+            case CLOSED -> true;
+            case OPEN -> nanoClock.getAsLong() - openedAt >= openNanos;
+            case HALF_OPEN -> !probeInFlight;
+        };
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+}
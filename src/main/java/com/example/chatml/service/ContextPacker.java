@@ -0,0 +1,105 @@
+package com.example.chatml.service;
+
+import com.example.chatml.model.RetrievedChunk;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.text.BreakIterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Builds the CONTEXT block of the prompt from retrieval results, in the order given, until
+ * {@code rag.context.token-budget} tokens are used. A source that does not fit whole is cut
+ * at the last sentence that does, and packing stops there.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ContextPacker {
+
+    private static final String TRUNCATION_MARKER = " [...]";
+
+    private final ChatTokenizer tokenizer;
+
+    @Value("${rag.context.token-budget:1000}")
+    private int tokenBudget;
+
+    /**
+     * Packs at most {@code maxSources} results into the token budget.
+     */
+    public String pack(List<RetrievedChunk> results, int maxSources) {
+        StringBuilder context = new StringBuilder();
+        int used = 0;
+        int included = 0;
+
+        for (RetrievedChunk result : results) {
+            if (included >= maxSources) {
+                break;
+            }
+            String doc = result.document();
+            if (doc == null || doc.isBlank()) {
+                continue;
+            }
+            String header = "=== SOURCE " + (included + 1) + " ===\n";
+            String footer = footer(result.metadata());
+            int overhead = tokenizer.countTokens(header) + tokenizer.countTokens(footer);
+            int docTokens = tokenizer.countTokens(doc);
+            int remaining = tokenBudget - used;
+
+            if (overhead + docTokens <= remaining) {
+                context.append(header).append(doc).append(footer);
+                used += overhead + docTokens;
+                included++;
+                continue;
+            }
+
+            int available = remaining - overhead - tokenizer.countTokens(TRUNCATION_MARKER);
+            String trimmed = trimToSentences(doc, available);
+            if (!trimmed.isEmpty()) {
+                context.append(header).append(trimmed).append(TRUNCATION_MARKER).append(footer);
+                used += overhead + tokenizer.countTokens(trimmed + TRUNCATION_MARKER);
+                included++;
+            }
+            break;
+        }
+
+        log.info("Packed {} sources into {}/{} context tokens", included, used, tokenBudget);
+        return context.toString();
+    }
+
+    private static String footer(Map<String, Object> metadata) {
+        StringBuilder footer = new StringBuilder();
+        if (metadata != null && metadata.containsKey("year")) {
+            footer.append("\n[Year: ").append(metadata.get("year")).append("]");
+        }
+        if (metadata != null && metadata.containsKey("rank")) {
+            footer.append(" [Priority: ").append(metadata.get("rank")).append("]");
+        }
+        return footer.append("\n\n").toString();
+    }
+
+    /**
+     * Longest prefix of whole sentences within {@code maxTokens}, or "" if not even the first sentence fits.
+     */
+    private String trimToSentences(String text, int maxTokens) {
+        if (maxTokens <= 0) {
+            return "";
+        }
+        BreakIterator sentences = BreakIterator.getSentenceInstance(Locale.ENGLISH);
+        sentences.setText(text);
+        int tokens = 0;
+        int end = 0;
+        for (int next = sentences.next(); next != BreakIterator.DONE; next = sentences.next()) {
+            tokens += tokenizer.countTokens(text.substring(end, next));
+            if (tokens > maxTokens) {
+                break;
+            }
+            end = next;
+        }
+        return text.substring(0, end).stripTrailing();
+    }
+}
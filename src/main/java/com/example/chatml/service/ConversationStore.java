@@ -0,0 +1,163 @@
+package com.example.chatml.service;
+
+import com.example.chatml.model.ChatMessage;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-memory conversations for the conversation request shape: the server keeps the history and the
+ * token ledger, so clients only send the new message and cannot edit the token count of a conversation.
+ * The ledger belongs to the conversation, not to the client: a request without a conversationId starts
+ * a new conversation with an empty ledger.
+ * Conversations expire after {@code rag.conversation.ttl-minutes}, or earlier when idle for
+ * {@code idle-timeout-minutes}; at {@code max-conversations} the least recently used one is dropped.
+ */
+@Slf4j
+@Component
+public class ConversationStore {
+
+    @Value("${rag.conversation.ttl-minutes:120}")
+    private long ttlMinutes;
+
+    @Value("${rag.conversation.idle-timeout-minutes:30}")
+    private long idleTimeoutMinutes;
+
+    @Value("${rag.conversation.max-conversations:10000}")
+    private int maxConversations;
+
+    @Value("${rag.conversation.sweep-interval-ms:60000}")
+    private long sweepIntervalMs;
+
+    // Access order, so the eldest entry is the least recently used conversation; guarded by lock
+    private final Map<String, Conversation> conversations = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Conversation> eldest) {
+            return size() > maxConversations;
+        }
+    };
+    private final ReentrantLock lock = new ReentrantLock();
+    private long nextSweep;
+
+    public static final class Conversation {
+        private final String id;
+        private final long createdAt;
+        private volatile long lastAccess;
+        private final List<ChatMessage> messages = new ArrayList<>();
+        private int tokensUsed;
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private Conversation(String id, long now) {
+            this.id = id;
+            this.createdAt = now;
+            this.lastAccess = now;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public int getTokensUsed() {
+            lock.lock();
+            try {
+                return tokensUsed;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Stored history followed by the new message, as a copy the caller may keep.
+         */
+        public List<ChatMessage> historyWith(ChatMessage next) {
+            lock.lock();
+            try {
+                List<ChatMessage> history = new ArrayList<>(messages.size() + 1);
+                history.addAll(messages);
+                history.add(next);
+                return history;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Appends one question/answer exchange and charges its tokens to the ledger.
+         * Returns the new token total.
+         */
+        public int record(ChatMessage question, String answer, int tokens) {
+            lock.lock();
+            try {
+                messages.add(question);
+                messages.add(new ChatMessage("assistant", answer));
+                tokensUsed += tokens;
+                return tokensUsed;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Returns the live conversation with this id, or a new one (with a server-generated id)
+     * when the id is null, unknown or expired.
+     */
+    public Conversation open(String conversationId) {
+        long now = System.currentTimeMillis();
+        lock.lock();
+        try {
+            sweepIfDue(now);
+
+            if (conversationId != null) {
+                Conversation existing = conversations.get(conversationId);
+                if (existing != null) {
+                    if (!isExpired(existing, now)) {
+                        existing.lastAccess = now;
+                        return existing;
+                    }
+                    conversations.remove(conversationId);
+                }
+            }
+
+            Conversation created = new Conversation(UUID.randomUUID().toString(), now);
+            conversations.put(created.getId(), created);
+            return created;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return conversations.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isExpired(Conversation conversation, long now) {
+        return now - conversation.createdAt >= ttlMinutes * 60_000L
+                || now - conversation.lastAccess >= idleTimeoutMinutes * 60_000L;
+    }
+
+    private void sweepIfDue(long now) {
+        if (now < nextSweep) {
+            return;
+        }
+        nextSweep = now + sweepIntervalMs;
+        int before = conversations.size();
+        conversations.values().removeIf(c -> isExpired(c, now));
+        int removed = before - conversations.size();
+        if (removed > 0) {
+            log.info("Evicted {} expired conversations ({} live)", removed, conversations.size());
+        }
+    }
+}
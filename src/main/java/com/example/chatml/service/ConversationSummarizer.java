@@ -0,0 +1,178 @@
+package com.example.chatml.service;
+
+import com.example.chatml.model.ChatMessage;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps the prompt history short: the last {@code rag.history.keep-recent-messages} messages are sent
+ * verbatim and everything older is replaced with a rolling summary.
+ * <p>
+ * The client sends the whole history on every turn, so summaries are cached by a hash of the message
+ * prefix they cover. After each answer, {@link #summarizeAsync} extends the longest cached summary with
+ * the messages that will fall out of the verbatim window on the next turn. If that summary is not ready
+ * yet, {@link #compact} uses the longest cached one plus the uncovered messages verbatim.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ConversationSummarizer {
+
+    private static final String SUMMARY_PROMPT = """
+            You maintain a running summary of a conversation between a visitor and a portfolio assistant \
+            who answers as the portfolio owner. Merge the previous summary (if any) with the new messages. \
+            Keep the topics, companies, projects and facts that were discussed and any open follow-up the \
+            visitor asked about. Write plain prose, at most %d words.""";
+
+    private final AzureChatClient chatClient;
+
+    @Value("${rag.history.summarize:true}")
+    private boolean enabled;
+
+    @Value("${rag.history.keep-recent-messages:4}")
+    private int keepRecentMessages;
+
+    @Value("${rag.history.summary-max-words:150}")
+    private int summaryMaxWords;
+
+    @Value("${rag.history.cache-max-entries:1000}")
+    private int maxEntries;
+
+    // Prefix hash -> summary of that prefix, least recently used first
+    private final Map<String, String> summaries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Returns the history to send before the current question: a summary message for the older part
+     * (when one is cached) followed by the remaining messages verbatim.
+     */
+    public List<ChatMessage> compact(List<ChatMessage> previous) {
+        if (!enabled || previous.size() <= keepRecentMessages) {
+            return previous;
+        }
+        int olderCount = previous.size() - keepRecentMessages;
+        String[] prefixKeys = prefixKeys(previous, olderCount);
+
+        for (int covered = olderCount; covered > 0; covered--) {
+            String summary = cached(prefixKeys[covered]);
+            if (summary != null) {
+                List<ChatMessage> compacted = new ArrayList<>(previous.size() - covered + 1);
+                compacted.add(summaryMessage(summary));
+                compacted.addAll(previous.subList(covered, previous.size()));
+                log.info("Compacted {} history messages into a summary ({} verbatim)",
+                        covered, previous.size() - covered);
+                return compacted;
+            }
+        }
+        return previous;
+    }
+
+    /**
+     * Prepares the summary the next turn of this conversation will need. {@code history} is the
+     * conversation including the answer just given, i.e. what precedes the next question.
+     */
+    @Async
+    public void summarizeAsync(List<ChatMessage> history) {
+        int olderCount = history.size() - keepRecentMessages;
+        if (!enabled || olderCount <= 0) {
+            return;
+        }
+        String[] prefixKeys = prefixKeys(history, olderCount);
+        String targetKey = prefixKeys[olderCount];
+        if (cached(targetKey) != null || !inFlight.add(targetKey)) {
+            return;
+        }
+        try {
+            int covered = 0;
+            String previousSummary = null;
+            for (int i = olderCount - 1; i > 0; i--) {
+                previousSummary = cached(prefixKeys[i]);
+                if (previousSummary != null) {
+                    covered = i;
+                    break;
+                }
+            }
+
+            StringBuilder transcript = new StringBuilder();
+            if (previousSummary != null) {
+                transcript.append("PREVIOUS SUMMARY:\n").append(previousSummary).append("\n\n");
+            }
+            transcript.append("NEW MESSAGES:\n");
+            for (ChatMessage message : history.subList(covered, olderCount)) {
+                transcript.append(message.getRole()).append(": ").append(message.getContent()).append('\n');
+            }
+
+            String summary = chatClient.chatWithMessages(List.of(
+                    new ChatMessage("system", SUMMARY_PROMPT.formatted(summaryMaxWords)),
+                    new ChatMessage("user", transcript.toString()))).getContent();
+            store(targetKey, summary);
+            log.info("Summarized {} history messages ({} new)", olderCount, olderCount - covered);
+        } catch (RuntimeException e) {
+            log.warn("History summarization failed, older messages stay verbatim: {}", e.getMessage());
+        } finally {
+            inFlight.remove(targetKey);
+        }
+    }
+
+    private static ChatMessage summaryMessage(String summary) {
+        return new ChatMessage("system", "Summary of the earlier conversation:\n" + summary);
+    }
+
+    private String cached(String key) {
+        lock.lock();
+        try {
+            return summaries.get(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void store(String key, String summary) {
+        lock.lock();
+        try {
+            summaries.put(key, summary);
+            while (summaries.size() > maxEntries) {
+                summaries.remove(summaries.keySet().iterator().next());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * keys[i] identifies the first i messages (keys[0] is unused).
+     */
+    private static String[] prefixKeys(List<ChatMessage> messages, int count) {
+        String[] keys = new String[count + 1];
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (int i = 0; i < count; i++) {
+                ChatMessage message = messages.get(i);
+                digest.update(String.valueOf(message.getRole()).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                digest.update(String.valueOf(message.getContent()).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                keys[i + 1] = HexFormat.of().formatHex(((MessageDigest) digest.clone()).digest());
+            }
+        } catch (NoSuchAlgorithmException | CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.chatml.service;
+
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency budget of one chat request. While a deadline is active on a thread, every outbound HTTP call
+ * made on it gets the remaining time as its timeout and is aborted when the deadline expires
+ * (see {@code DeadlineRequestFactory}). Work handed to other threads carries it along via {@link #wrap}.
+ * A deadline can also be cancelled before it expires ({@link #cancel}), which aborts its calls at once
+ * and from then on counts as expired.
+ */
+public final class Deadline {
+
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+    private final long expiresAtNanos;
+    // Aborts of the calls in flight under this deadline, run by cancel()
+    private final Set<Runnable> cancelHooks = ConcurrentHashMap.newKeySet();
+    private volatile boolean cancelled;
+
+    private Deadline(long expiresAtNanos) {
+        this.expiresAtNanos = expiresAtNanos;
+    }
+
+    public static Deadline after(long millis) {
+        return new Deadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    /**
+     * The deadline active on this thread, or null when the work is not bounded (e.g. reading an ingestion source).
+     */
+    public static Deadline current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * An earlier deadline, leaving {@code millis} of this one for later stages.
+     */
+    public Deadline minus(long millis) {
+        return new Deadline(expiresAtNanos - TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    /**
+     * The earlier of this deadline and {@code millis} from now.
+     */
+    public Deadline atMost(long millis) {
+        return new Deadline(Math.min(expiresAtNanos, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis)));
+    }
+
+    /**
+     * A deadline with the same expiry that can be cancelled without cancelling this one.
+     */
+    public Deadline fork() {
+        return new Deadline(expiresAtNanos);
+    }
+
+    public long remainingNanos() {
+        return cancelled ? 0 : Math.max(0, expiresAtNanos - System.nanoTime());
+    }
+
+    public long remainingMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(remainingNanos());
+    }
+
+    public boolean isExpired() {
+        return cancelled || expiresAtNanos - System.nanoTime() <= 0;
+    }
+
+    /**
+     * Expires this deadline now and aborts the calls running under it.
+     */
+    public void cancel() {
+        cancelled = true;
+        cancelHooks.forEach(Runnable::run);
+    }
+
+    /**
+     * Runs {@code abort} if this deadline is cancelled before the returned scope is closed
+     * (at once if it already is). {@code abort} may run more than once.
+     */
+    public Scope onCancel(Runnable abort) {
+        cancelHooks.add(abort);
+        if (cancelled) {
+            abort.run();
+        }
+        return () -> cancelHooks.remove(abort);
+    }
+
+    public void check(String stage) {
+        if (isExpired()) {
+            throw new DeadlineExceededException(stage);
+        }
+    }
+
+    /**
+     * Makes this the current deadline until the returned scope is closed.
+     */
+    public Scope activate() {
+        Deadline previous = CURRENT.get();
+        CURRENT.set(this);
+        return () -> {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        };
+    }
+
+    /**
+     * Runs {@code task} with the deadline that is current now, on whichever thread executes it.
+     */
+    public static <T> Callable<T> wrap(Callable<T> task) {
+        Deadline deadline = current();
+        if (deadline == null) {
+            return task;
+        }
+        return () -> {
+            try (Scope scope = deadline.activate()) {
+                return task.call();
+            }
+        };
+    }
+
+    /**
+     * True when {@code e} was caused by running out of time rather than by a failing dependency.
+     */
+    public boolean explains(RuntimeException e) {
+        return e instanceof DeadlineExceededException || isExpired();
+    }
+
+    public interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
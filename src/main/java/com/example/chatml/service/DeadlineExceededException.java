@@ -0,0 +1,11 @@
+package com.example.chatml.service;
+
+/**
+ * Thrown when a request's {@link Deadline} expires before a stage could start or finish.
+ */
+public class DeadlineExceededException extends RuntimeException {
+
+    public DeadlineExceededException(String stage) {
+        super("Request deadline exceeded during " + stage);
+    }
+}
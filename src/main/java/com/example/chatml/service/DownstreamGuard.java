@@ -0,0 +1,153 @@
+package com.example.chatml.service;
+
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientResponseException;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Bulkhead plus circuit breaker for one downstream dependency. The bulkhead caps concurrent calls,
+ * so one slow dependency cannot take every pooled connection and request thread; the breaker stops
+ * calling a dependency that keeps failing. Both reject with {@link DownstreamUnavailableException}.
+ * Only I/O errors, timeouts, 5xx and 429 count as failures: other 4xx responses are the caller's fault,
+ * and a call the caller itself aborted (its {@link Deadline} expired or was cancelled, or its thread was
+ * interrupted) says nothing about the dependency.
+ */
+public final class DownstreamGuard {
+
+    private final String name;
+    private final int maxConcurrent;
+    private final long maxWaitMs;
+    private final Semaphore permits;
+    private final CircuitBreaker breaker;
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public DownstreamGuard(String name, int maxConcurrent, long maxWaitMs, int failureThreshold, long openMillis) {
+        this.name = name;
+        this.maxConcurrent = maxConcurrent;
+        this.maxWaitMs = maxWaitMs;
+        this.permits = new Semaphore(maxConcurrent);
+        this.breaker = new CircuitBreaker(failureThreshold, openMillis);
+    }
+
+    public <T> T call(Supplier<T> call) {
+        if (!breaker.tryAcquire()) {
+            rejected.incrementAndGet();
+            throw new DownstreamUnavailableException(name + " circuit is open");
+        }
+        boolean permitted;
+        try {
+            permitted = acquirePermit();
+        } catch (CancellationException e) {
+            breaker.onIgnored();
+            throw e;
+        }
+        if (!permitted) {
+            breaker.onIgnored();
+            rejected.incrementAndGet();
+            throw new DownstreamUnavailableException(name + " bulkhead is full (" + maxConcurrent + " in flight)");
+        }
+
+        calls.incrementAndGet();
+        try {
+            T result = call.get();
+            breaker.onSuccess();
+            return result;
+        } catch (RuntimeException e) {
+            if (abortedByCaller()) {
+                breaker.onIgnored();
+            } else if (isFailure(e)) {
+                failures.incrementAndGet();
+                breaker.onFailure();
+            } else if (e instanceof RestClientResponseException) {
+                // The dependency answered, it is up
+                breaker.onSuccess();
+            } else {
+                breaker.onIgnored();
+            }
+            throw e;
+        } catch (Error e) {
+            breaker.onIgnored();
+            throw e;
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Whether a call would currently be let through (closed, or open long enough to probe).
+     */
+    public boolean isAvailable() {
+        return breaker.isCallPermitted();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public CircuitBreaker.State getState() {
+        return breaker.getState();
+    }
+
+    public int getInFlight() {
+        return maxConcurrent - permits.availablePermits();
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public long getCalls() {
+        return calls.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    private boolean acquirePermit() {
+        long waitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+        Deadline deadline = Deadline.current();
+        if (deadline != null) {
+            waitNanos = Math.min(waitNanos, deadline.remainingNanos());
+        }
+        try {
+            return permits.tryAcquire(waitNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException(name + " call cancelled while waiting for the bulkhead");
+        }
+    }
+
+    /**
+     * The call was cut short from this side: the deadline ran out (a retrieval budget, a stream deadline,
+     * a hedged attempt that lost) or the task was cancelled.
+     */
+    private static boolean abortedByCaller() {
+        Deadline deadline = Deadline.current();
+        return (deadline != null && deadline.isExpired()) || Thread.currentThread().isInterrupted();
+    }
+
+    private static boolean isFailure(RuntimeException e) {
+        if (e instanceof ResourceAccessException) {
+            // I/O error or timeout
+            return true;
+        }
+        if (e instanceof RestClientResponseException response) {
+            return response.getStatusCode().is5xxServerError() || e instanceof HttpClientErrorException.TooManyRequests;
+        }
+        return false;
+    }
+}
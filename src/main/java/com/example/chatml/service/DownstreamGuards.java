@@ -0,0 +1,69 @@
+package com.example.chatml.service;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * One {@link DownstreamGuard} per outbound dependency: Azure chat, Azure embeddings and Chroma.
+ * Chat and embeddings go to the same Azure host, so together their bulkheads should not exceed
+ * {@code outbound.http.max-connections-per-route}; a burst of long chat streams then cannot
+ * starve the embedding calls every request starts with.
+ */
+@Component
+public class DownstreamGuards {
+
+    @Value("${downstream.chat.max-concurrent:12}")
+    private int chatMaxConcurrent;
+
+    @Value("${downstream.chat.max-wait-ms:500}")
+    private long chatMaxWaitMs;
+
+    @Value("${downstream.embedding.max-concurrent:8}")
+    private int embeddingMaxConcurrent;
+
+    @Value("${downstream.embedding.max-wait-ms:500}")
+    private long embeddingMaxWaitMs;
+
+    @Value("${downstream.chroma.max-concurrent:10}")
+    private int chromaMaxConcurrent;
+
+    @Value("${downstream.chroma.max-wait-ms:200}")
+    private long chromaMaxWaitMs;
+
+    @Value("${downstream.failure-threshold:5}")
+    private int failureThreshold;
+
+    @Value("${downstream.open-ms:30000}")
+    private long openMs;
+
+    private DownstreamGuard chat;
+    private DownstreamGuard embedding;
+    private DownstreamGuard chroma;
+
+    @PostConstruct
+    void init() {
+        chat = new DownstreamGuard("azure-chat", chatMaxConcurrent, chatMaxWaitMs, failureThreshold, openMs);
+        embedding = new DownstreamGuard("azure-embedding", embeddingMaxConcurrent, embeddingMaxWaitMs,
+                failureThreshold, openMs);
+        chroma = new DownstreamGuard("chroma", chromaMaxConcurrent, chromaMaxWaitMs, failureThreshold, openMs);
+    }
+
+    public DownstreamGuard chat() {
+        return chat;
+    }
+
+    public DownstreamGuard embedding() {
+        return embedding;
+    }
+
+    public DownstreamGuard chroma() {
+        return chroma;
+    }
+
+    public List<DownstreamGuard> all() {
+        return List.of(chat, embedding, chroma);
+    }
+}
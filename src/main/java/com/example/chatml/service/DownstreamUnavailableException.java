@@ -0,0 +1,11 @@
+package com.example.chatml.service;
+
+/**
+ * Thrown without calling a dependency when its circuit is open or its bulkhead is full.
+ */
+public class DownstreamUnavailableException extends RuntimeException {
+
+    public DownstreamUnavailableException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,199 @@
+package com.example.chatml.service;
+
+import com.example.chatml.model.Embedding;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * LRU cache of embeddings keyed by a SHA-256 of the embedding deployment, the requested dimensions
+ * and the input text. Only surrounding whitespace is trimmed: the model is case- and
+ * spacing-sensitive, so texts differing in either get their own vectors.
+ * When {@code embedding.cache.file} is set the entries are loaded at startup and written back on
+ * shutdown (and after each ingestion), so repeated questions and unchanged documents never hit Azure.
+ */
+@Slf4j
+@Component
+public class EmbeddingCache {
+
+    // 2: keys hash the exact (trimmed) text; version 1 files hold vectors under case-folded keys
+    private static final int FILE_VERSION = 2;
+
+    @Value("${embedding.cache.max-entries:2000}")
+    private int maxEntries;
+
+    @Value("${embedding.cache.file:}")
+    private String cacheFile;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private boolean dirty = false;
+
+    // A lock rather than synchronized: flush() does file I/O, which would pin virtual threads.
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final LinkedHashMap<String, Embedding> entries = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Embedding> eldest) {
+            if (size() > maxEntries) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    /**
+     * Cache key for a text embedded with the given deployment and dimensions (0 for the model default).
+     */
+    public String key(String text, String deployment, int dimensions) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(deployment.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            if (dimensions > 0) {
+                digest.update(Integer.toString(dimensions).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            digest.update(text.trim().getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public Embedding get(String key) {
+        Embedding embedding;
+        lock.lock();
+        try {
+            embedding = entries.get(key);
+        } finally {
+            lock.unlock();
+        }
+        if (embedding != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return embedding;
+    }
+
+    public void put(String key, Embedding embedding) {
+        lock.lock();
+        try {
+            entries.put(key, embedding);
+            dirty = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    @PostConstruct
+    void load() {
+        if (cacheFile == null || cacheFile.isBlank() || !new File(cacheFile).exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)))) {
+            if (in.readInt() != FILE_VERSION) {
+                log.warn("Ignoring embedding cache file {} written by another version", cacheFile);
+                return;
+            }
+            int count = in.readInt();
+            lock.lock();
+            try {
+                for (int i = 0; i < count; i++) {
+                    String key = in.readUTF();
+                    int dimensions = in.readInt();
+                    float[] vector = new float[dimensions];
+                    for (int d = 0; d < dimensions; d++) {
+                        vector[d] = in.readFloat();
+                    }
+                    entries.put(key, new Embedding(vector));
+                }
+            } finally {
+                lock.unlock();
+            }
+            log.info("Loaded {} cached embeddings from {}", count, cacheFile);
+        } catch (IOException e) {
+            log.warn("Could not read embedding cache {}: {}", cacheFile, e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the cache to {@code embedding.cache.file} if anything changed since the last write.
+     */
+    @PreDestroy
+    public void flush() {
+        if (cacheFile == null || cacheFile.isBlank()) {
+            return;
+        }
+        Path target = Path.of(cacheFile).toAbsolutePath();
+        lock.lock();
+        try {
+            if (!dirty) {
+                return;
+            }
+            Files.createDirectories(target.getParent());
+            Path temp = Files.createTempFile(target.getParent(), "embeddings", ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(FILE_VERSION);
+                out.writeInt(entries.size());
+                // Iterating an access-ordered map does not reorder it, so LRU order is preserved on reload.
+                for (Map.Entry<String, Embedding> entry : entries.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    float[] vector = entry.getValue().values();
+                    out.writeInt(vector.length);
+                    for (float value : vector) {
+                        out.writeFloat(value);
+                    }
+                }
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+            log.info("Saved {} cached embeddings to {}", entries.size(), cacheFile);
+        } catch (IOException e) {
+            log.warn("Could not write embedding cache {}: {}", cacheFile, e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.example.chatml.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Hedged requests for idempotent calls: if the first attempt has not answered within the recent
+ * {@code percentile} latency, an identical second attempt is started and the first success wins.
+ * Latencies of completed attempts feed the percentile, so the hedge delay tracks the dependency.
+ * Both attempts run under the caller's {@link Deadline}, which also bounds the wait; once one attempt
+ * has answered (or the caller stops waiting) the other is interrupted and its HTTP request aborted.
+ * Attempts run on at most {@code maxThreads} threads: when all are busy the call is not hedged.
+ * An interrupted caller gets a {@link CancellationException}.
+ */
+@Slf4j
+public final class HedgedExecutor implements AutoCloseable {
+
+    private static final int WINDOW = 256;
+
+    // Attempts of callers without a deadline still get one, so the losing attempt can be aborted
+    private static final long UNBOUNDED_MS = TimeUnit.DAYS.toMillis(1);
+
+    private final String name;
+    private final double percentile;
+    private final long initialDelayMs;
+    private final long minDelayMs;
+    private final int minSamples;
+
+    // Ring buffer of recent attempt latencies (nanos)
+    private final long[] latencies = new long[WINDOW];
+    private int samples;
+    private int next;
+
+    // Own bounded pool, not the shared task executor: callers may already be running on that one.
+    // No queue: an attempt that cannot start at once would not be faster than waiting.
+    private final ThreadPoolExecutor executor;
+
+    public HedgedExecutor(String name, double percentile, long initialDelayMs, long minDelayMs, int minSamples,
+                          int maxThreads, ThreadFactory threadFactory) {
+        this.name = name;
+        this.percentile = percentile;
+        this.initialDelayMs = initialDelayMs;
+        this.minDelayMs = minDelayMs;
+        this.minSamples = minSamples;
+        this.executor = new ThreadPoolExecutor(0, Math.max(1, maxThreads), 60, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), threadFactory);
+    }
+
+    /**
+     * One attempt: its result, the task running it, and the deadline its HTTP calls are aborted by.
+     */
+    private record Attempt<T>(CompletableFuture<T> result, Future<?> task, Deadline deadline) {
+        void cancel() {
+            deadline.cancel();
+            task.cancel(true);
+            result.cancel(false);
+        }
+    }
+
+    public <T> T execute(Supplier<T> call) {
+        Deadline deadline = Deadline.current();
+        Attempt<T> primary;
+        try {
+            primary = attempt(call, deadline);
+        } catch (RejectedExecutionException e) {
+            // Every thread busy: the caller makes the call itself, unhedged
+            return call.get();
+        }
+
+        long delayNanos = TimeUnit.MILLISECONDS.toNanos(hedgeDelayMillis());
+        if (deadline != null) {
+            delayNanos = Math.min(delayNanos, deadline.remainingNanos());
+        }
+        Attempt<T> hedge = null;
+        try {
+            try {
+                return primary.result().get(delayNanos, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                // Slower than usual: hedge below
+            }
+            if (deadline != null) {
+                deadline.check(name);
+            }
+
+            CompletableFuture<T> first;
+            try {
+                hedge = attempt(call, deadline);
+                log.debug("{} slower than {} ms, sending hedged request", name,
+                        TimeUnit.NANOSECONDS.toMillis(delayNanos));
+                first = firstSuccess(primary.result(), hedge.result());
+            } catch (RejectedExecutionException e) {
+                log.debug("{} slower than {} ms, but no thread free to hedge", name,
+                        TimeUnit.NANOSECONDS.toMillis(delayNanos));
+                first = primary.result();
+            }
+            return deadline == null ? first.get() : first.get(deadline.remainingNanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            throw new DeadlineExceededException(name);
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        } catch (InterruptedException e) {
+            throw cancelled();
+        } finally {
+            // The winner is done, so this only stops the loser (or both when the caller gave up)
+            primary.cancel();
+            if (hedge != null) {
+                hedge.cancel();
+            }
+        }
+    }
+
+    /**
+     * The configured percentile of recent latencies, or {@code initialDelayMs} until enough samples exist.
+     */
+    private long hedgeDelayMillis() {
+        long[] snapshot;
+        synchronized (latencies) {
+            if (samples < minSamples) {
+                return initialDelayMs;
+            }
+            snapshot = Arrays.copyOf(latencies, samples);
+        }
+        Arrays.sort(snapshot);
+        int index = Math.min(snapshot.length - 1, (int) Math.ceil(percentile * snapshot.length) - 1);
+        return Math.max(minDelayMs, TimeUnit.NANOSECONDS.toMillis(snapshot[Math.max(0, index)]));
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private <T> Attempt<T> attempt(Supplier<T> call, Deadline callerDeadline) {
+        Deadline deadline = callerDeadline != null ? callerDeadline.fork() : Deadline.after(UNBOUNDED_MS);
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Future<?> task = executor.submit(() -> {
+            long start = System.nanoTime();
+            try (Deadline.Scope scope = deadline.activate()) {
+                T value = call.get();
+                record(System.nanoTime() - start);
+                result.complete(value);
+            } catch (RuntimeException | Error e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return new Attempt<>(result, task, deadline);
+    }
+
+    private void record(long latencyNanos) {
+        synchronized (latencies) {
+            latencies[next] = latencyNanos;
+            next = (next + 1) % WINDOW;
+            samples = Math.min(samples + 1, WINDOW);
+        }
+    }
+
+    /**
+     * Completes with the first successful result, or with the last failure if both attempts fail.
+     */
+    private static <T> CompletableFuture<T> firstSuccess(CompletableFuture<T> a, CompletableFuture<T> b) {
+        CompletableFuture<T> winner = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        for (CompletableFuture<T> attempt : List.of(a, b)) {
+            attempt.whenComplete((value, error) -> {
+                if (error == null) {
+                    winner.complete(value);
+                } else if (failures.incrementAndGet() == 2) {
+                    winner.completeExceptionally(error);
+                }
+            });
+        }
+        return winner;
+    }
+
+    private CancellationException cancelled() {
+        Thread.currentThread().interrupt();
+        return new CancellationException(name + " cancelled by the caller");
+    }
+
+    private static RuntimeException unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof RuntimeException runtime) {
+            return runtime;
+        }
+        if (cause instanceof Error error) {
+            throw error;
+        }
+        return new IllegalStateException(cause);
+    }
+}
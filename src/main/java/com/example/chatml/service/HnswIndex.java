@@ -0,0 +1,302 @@
+package com.example.chatml.service;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.function.IntPredicate;
+
+/**
+ * Hierarchical Navigable Small World graph over float vectors (squared L2 distance,
+ * same as Chroma's default "l2" space).
+ * Nodes are addressed by the int returned from {@link #insert}; removed nodes stay in the
+ * graph for navigation but are never returned. Not thread-safe, callers must synchronize.
+ */
+class HnswIndex {
+
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final Random random = new Random(42);
+
+    private final List<Node> nodes = new ArrayList<>();
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+    private int dimension = -1;
+    private int deletedCount = 0;
+
+    HnswIndex(int m, int efConstruction) {
+        this.m = Math.max(2, m);
+        this.maxM0 = this.m * 2;
+        this.efConstruction = Math.max(this.m, efConstruction);
+        this.levelMultiplier = 1.0 / Math.log(this.m);
+    }
+
+    /**
+     * Result of a search: node index and its distance to the query.
+     */
+    record Neighbor(int node, float distance) {
+    }
+
+    int size() {
+        return nodes.size() - deletedCount;
+    }
+
+    int deletedCount() {
+        return deletedCount;
+    }
+
+    int insert(float[] vector) {
+        if (dimension == -1) {
+            dimension = vector.length;
+        } else if (vector.length != dimension) {
+            throw new IllegalArgumentException(
+                    "Embedding dimension " + vector.length + " does not match index dimension " + dimension);
+        }
+
+        int level = (int) (-Math.log(1.0 - random.nextDouble()) * levelMultiplier);
+        int nodeId = nodes.size();
+        Node node = new Node(vector, level, m, maxM0);
+        nodes.add(node);
+
+        if (entryPoint == -1) {
+            entryPoint = nodeId;
+            maxLevel = level;
+            return nodeId;
+        }
+
+        int current = entryPoint;
+        for (int layer = maxLevel; layer > level; layer--) {
+            current = greedyClosest(vector, current, layer);
+        }
+
+        List<Neighbor> entryPoints = List.of(new Neighbor(current, distance(vector, nodes.get(current).vector)));
+        for (int layer = Math.min(level, maxLevel); layer >= 0; layer--) {
+            List<Neighbor> candidates = searchLayer(vector, entryPoints, efConstruction, layer, i -> true);
+            int maxConnections = layer == 0 ? maxM0 : m;
+            List<Neighbor> selected = selectNeighbors(candidates, m);
+            for (Neighbor neighbor : selected) {
+                node.addLink(layer, neighbor.node());
+                connect(neighbor.node(), nodeId, layer, maxConnections);
+            }
+            entryPoints = candidates;
+        }
+
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = nodeId;
+        }
+        return nodeId;
+    }
+
+    void remove(int nodeId) {
+        Node node = nodes.get(nodeId);
+        if (!node.deleted) {
+            node.deleted = true;
+            deletedCount++;
+        }
+    }
+
+    /**
+     * Returns up to {@code k} live nodes accepted by {@code filter}, nearest first.
+     */
+    List<Neighbor> search(float[] query, int k, int ef, IntPredicate filter) {
+        if (entryPoint == -1 || k <= 0) {
+            return List.of();
+        }
+        if (query.length != dimension) {
+            throw new IllegalArgumentException(
+                    "Query dimension " + query.length + " does not match index dimension " + dimension);
+        }
+
+        int current = entryPoint;
+        for (int layer = maxLevel; layer > 0; layer--) {
+            current = greedyClosest(query, current, layer);
+        }
+
+        IntPredicate accept = i -> !nodes.get(i).deleted && filter.test(i);
+        List<Neighbor> found = searchLayer(query,
+                List.of(new Neighbor(current, distance(query, nodes.get(current).vector))),
+                Math.max(ef, k), 0, accept);
+        return found.size() > k ? found.subList(0, k) : found;
+    }
+
+    /**
+     * Exact scan over all live nodes, used when a restrictive filter leaves the graph search short.
+     */
+    List<Neighbor> scan(float[] query, int k, IntPredicate filter) {
+        PriorityQueue<Neighbor> best = new PriorityQueue<>(Comparator.comparingDouble(Neighbor::distance).reversed());
+        for (int i = 0; i < nodes.size(); i++) {
+            Node node = nodes.get(i);
+            if (node.deleted || !filter.test(i)) {
+                continue;
+            }
+            best.add(new Neighbor(i, distance(query, node.vector)));
+            if (best.size() > k) {
+                best.poll();
+            }
+        }
+        List<Neighbor> result = new ArrayList<>(best);
+        result.sort(Comparator.comparingDouble(Neighbor::distance));
+        return result;
+    }
+
+    private int greedyClosest(float[] query, int start, int layer) {
+        int current = start;
+        float currentDistance = distance(query, nodes.get(current).vector);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            Node node = nodes.get(current);
+            for (int i = 0; i < node.linkCounts[layer]; i++) {
+                int candidate = node.links[layer][i];
+                float d = distance(query, nodes.get(candidate).vector);
+                if (d < currentDistance) {
+                    currentDistance = d;
+                    current = candidate;
+                    changed = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Best-first search on one layer. Every reachable node is used for navigation,
+     * but only nodes passing {@code accept} enter the result set.
+     */
+    private List<Neighbor> searchLayer(float[] query, List<Neighbor> entryPoints, int ef, int layer, IntPredicate accept) {
+        BitSet visited = new BitSet(nodes.size());
+        PriorityQueue<Neighbor> candidates = new PriorityQueue<>(Comparator.comparingDouble(Neighbor::distance));
+        PriorityQueue<Neighbor> results = new PriorityQueue<>(Comparator.comparingDouble(Neighbor::distance).reversed());
+
+        for (Neighbor entry : entryPoints) {
+            visited.set(entry.node());
+            candidates.add(entry);
+            if (accept.test(entry.node())) {
+                results.add(entry);
+            }
+        }
+        while (results.size() > ef) {
+            results.poll();
+        }
+
+        while (!candidates.isEmpty()) {
+            Neighbor closest = candidates.poll();
+            if (results.size() >= ef && closest.distance() > results.peek().distance()) {
+                break;
+            }
+            Node node = nodes.get(closest.node());
+            for (int i = 0; i < node.linkCounts[layer]; i++) {
+                int next = node.links[layer][i];
+                if (visited.get(next)) {
+                    continue;
+                }
+                visited.set(next);
+                float d = distance(query, nodes.get(next).vector);
+                if (results.size() < ef || d < results.peek().distance()) {
+                    Neighbor neighbor = new Neighbor(next, d);
+                    candidates.add(neighbor);
+                    if (accept.test(next)) {
+                        results.add(neighbor);
+                        if (results.size() > ef) {
+                            results.poll();
+                        }
+                    }
+                }
+            }
+        }
+
+        List<Neighbor> sorted = new ArrayList<>(results);
+        sorted.sort(Comparator.comparingDouble(Neighbor::distance));
+        return sorted;
+    }
+
+    /**
+     * Neighbour selection heuristic from the HNSW paper: keep a candidate only if it is closer
+     * to the base node than to any already selected neighbour, then top up with the pruned ones.
+     */
+    private List<Neighbor> selectNeighbors(List<Neighbor> candidates, int max) {
+        if (candidates.size() <= max) {
+            return candidates;
+        }
+        List<Neighbor> selected = new ArrayList<>(max);
+        List<Neighbor> pruned = new ArrayList<>();
+        for (Neighbor candidate : candidates) {
+            if (selected.size() >= max) {
+                break;
+            }
+            float[] vector = nodes.get(candidate.node()).vector;
+            boolean diverse = true;
+            for (Neighbor chosen : selected) {
+                if (distance(vector, nodes.get(chosen.node()).vector) < candidate.distance()) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected.add(candidate);
+            } else {
+                pruned.add(candidate);
+            }
+        }
+        for (int i = 0; i < pruned.size() && selected.size() < max; i++) {
+            selected.add(pruned.get(i));
+        }
+        return selected;
+    }
+
+    private void connect(int from, int to, int layer, int maxConnections) {
+        Node node = nodes.get(from);
+        if (node.linkCounts[layer] < maxConnections) {
+            node.addLink(layer, to);
+            return;
+        }
+
+        List<Neighbor> candidates = new ArrayList<>(node.linkCounts[layer] + 1);
+        for (int i = 0; i < node.linkCounts[layer]; i++) {
+            int existing = node.links[layer][i];
+            candidates.add(new Neighbor(existing, distance(node.vector, nodes.get(existing).vector)));
+        }
+        candidates.add(new Neighbor(to, distance(node.vector, nodes.get(to).vector)));
+        candidates.sort(Comparator.comparingDouble(Neighbor::distance));
+
+        List<Neighbor> kept = selectNeighbors(candidates, maxConnections);
+        node.linkCounts[layer] = 0;
+        for (Neighbor neighbor : kept) {
+            node.addLink(layer, neighbor.node());
+        }
+    }
+
+    static float distance(float[] a, float[] b) {
+        float sum = 0f;
+        for (int i = 0; i < a.length; i++) {
+            float diff = a[i] - b[i];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    private static final class Node {
+        final float[] vector;
+        final int[][] links;
+        final int[] linkCounts;
+        boolean deleted;
+
+        Node(float[] vector, int level, int m, int maxM0) {
+            this.vector = vector;
+            this.links = new int[level + 1][];
+            this.linkCounts = new int[level + 1];
+            for (int layer = 0; layer <= level; layer++) {
+                links[layer] = new int[layer == 0 ? maxM0 : m];
+            }
+        }
+
+        void addLink(int layer, int target) {
+            links[layer][linkCounts[layer]++] = target;
+        }
+    }
+}
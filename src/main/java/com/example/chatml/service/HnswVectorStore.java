@@ -0,0 +1,207 @@
+package com.example.chatml.service;
+
+import com.example.chatml.model.Embedding;
+import com.example.chatml.model.RetrievedChunk;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+
+/**
+ * In-process vector store backed by an HNSW graph. Enabled with {@code vector.store=hnsw};
+ * the corpus lives in memory and can optionally be snapshotted to a file so it survives restarts.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "vector.store", havingValue = "hnsw")
+public class HnswVectorStore implements VectorStore {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    @Value("${vector.hnsw.m:16}")
+    private int m;
+
+    @Value("${vector.hnsw.ef-construction:200}")
+    private int efConstruction;
+
+    @Value("${vector.hnsw.ef-search:64}")
+    private int efSearch;
+
+    @Value("${vector.hnsw.snapshot-file:}")
+    private String snapshotFile;
+
+    private HnswIndex index;
+    private final List<StoredDocument> documentsByNode = new ArrayList<>();
+    // Parsed once per insert; queries only attach the distance
+    private final List<RetrievedChunk> chunksByNode = new ArrayList<>();
+    private final Map<String, Integer> nodeById = new HashMap<>();
+    private boolean dirty = false;
+
+    /**
+     * One stored entry; also the on-disk snapshot format.
+     */
+    record StoredDocument(String id, float[] embedding, String document, Map<String, Object> metadata) {
+    }
+
+    @PostConstruct
+    void init() {
+        index = new HnswIndex(m, efConstruction);
+        if (snapshotFile == null || snapshotFile.isBlank()) {
+            return;
+        }
+        File file = new File(snapshotFile);
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            List<StoredDocument> snapshot = objectMapper.readValue(file, new TypeReference<>() {});
+            for (StoredDocument doc : snapshot) {
+                insert(doc);
+            }
+            log.info("Loaded {} documents into HNSW index from {}", snapshot.size(), snapshotFile);
+        } catch (IOException e) {
+            log.warn("Could not read HNSW snapshot {}: {}", snapshotFile, e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    @Override
+    public void flush() {
+        if (snapshotFile == null || snapshotFile.isBlank()) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (!dirty) {
+                return;
+            }
+            List<StoredDocument> live = new ArrayList<>(nodeById.size());
+            for (int node : nodeById.values()) {
+                live.add(documentsByNode.get(node));
+            }
+            File file = new File(snapshotFile);
+            if (file.getParentFile() != null) {
+                file.getParentFile().mkdirs();
+            }
+            objectMapper.writeValue(file, live);
+            dirty = false;
+            log.info("Saved {} documents to HNSW snapshot {}", live.size(), snapshotFile);
+        } catch (IOException e) {
+            log.warn("Could not write HNSW snapshot {}: {}", snapshotFile, e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void addOrUpdateEmbedding(String id, Embedding embedding, String documentText, Map<String, Object> metadata) {
+        StoredDocument doc = new StoredDocument(id, embedding.values(), documentText,
+                metadata != null ? new HashMap<>(metadata) : Map.of("source", "portfolio"));
+        lock.writeLock().lock();
+        try {
+            insert(doc);
+            dirty = true;
+            // Replaced entries stay in the graph as tombstones; rebuild once they dominate.
+            if (index.deletedCount() > 32 && index.deletedCount() > index.size()) {
+                rebuild();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void delete(Collection<String> ids) {
+        lock.writeLock().lock();
+        try {
+            for (String id : ids) {
+                Integer node = nodeById.remove(id);
+                if (node != null) {
+                    index.remove(node);
+                    dirty = true;
+                }
+            }
+            if (index.deletedCount() > 32 && index.deletedCount() > index.size()) {
+                rebuild();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<RetrievedChunk> querySimilar(Embedding embedding, int topK, Map<String, Object> whereFilter) {
+        float[] query = embedding.values();
+        lock.readLock().lock();
+        try {
+            if (index.size() == 0) {
+                return Collections.emptyList();
+            }
+            IntPredicate filter =
+                    node -> MetadataFilter.matches(whereFilter, documentsByNode.get(node).metadata());
+            List<HnswIndex.Neighbor> neighbors = index.search(query, topK, efSearch, filter);
+            if (neighbors.size() < topK && whereFilter != null && !whereFilter.isEmpty()) {
+                // A selective filter can starve the graph walk; the corpus is small enough to scan exactly.
+                neighbors = index.scan(query, topK, filter);
+            }
+
+            List<RetrievedChunk> results = new ArrayList<>(neighbors.size());
+            for (HnswIndex.Neighbor neighbor : neighbors) {
+                results.add(chunksByNode.get(neighbor.node()).withDistance(neighbor.distance()));
+            }
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<RetrievedChunk> getAllDocuments() {
+        lock.readLock().lock();
+        try {
+            List<RetrievedChunk> documents = new ArrayList<>(nodeById.size());
+            for (int node : nodeById.values()) {
+                documents.add(chunksByNode.get(node));
+            }
+            return documents;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void insert(StoredDocument doc) {
+        int node = index.insert(doc.embedding());
+        documentsByNode.add(doc);
+        chunksByNode.add(RetrievedChunk.of(doc.id(), doc.document(), doc.metadata(), Double.NaN));
+        Integer previous = nodeById.put(doc.id(), node);
+        if (previous != null) {
+            index.remove(previous);
+        }
+    }
+
+    private void rebuild() {
+        List<StoredDocument> live = new ArrayList<>(nodeById.size());
+        for (int node : nodeById.values()) {
+            live.add(documentsByNode.get(node));
+        }
+        index = new HnswIndex(m, efConstruction);
+        documentsByNode.clear();
+        chunksByNode.clear();
+        nodeById.clear();
+        for (StoredDocument doc : live) {
+            insert(doc);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.chatml.service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Progress of one background ingestion run. The source is read while earlier batches are being
+ * stored, so {@link #getTotal()} grows until the source has been read; workers update the other
+ * counters as batches finish, so a status request sees the job advance. {@link #getErrors()} keeps
+ * the first {@link #MAX_ERRORS} per-document errors.
+ */
+public final class IngestionJob {
+
+    public enum State { QUEUED, RUNNING, COMPLETED, FAILED }
+
+    private static final int MAX_ERRORS = 50;
+
+    private final String id = UUID.randomUUID().toString();
+    private final Instant submittedAt = Instant.now();
+    private volatile State state = State.QUEUED;
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+    private volatile boolean sourceRead;
+
+    private final AtomicInteger total = new AtomicInteger();
+    private final AtomicInteger added = new AtomicInteger();
+    private final AtomicInteger updated = new AtomicInteger();
+    private final AtomicInteger deleted = new AtomicInteger();
+    private final AtomicInteger unchanged = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger retries = new AtomicInteger();
+    private final List<String> errors = new ArrayList<>();
+
+    void start() {
+        startedAt = Instant.now();
+        state = State.RUNNING;
+    }
+
+    void found(boolean alreadyStored) {
+        total.incrementAndGet();
+        if (alreadyStored) {
+            unchanged.incrementAndGet();
+        }
+    }
+
+    void sourceRead() {
+        sourceRead = true;
+    }
+
+    void stored(int addedDocuments, int updatedDocuments) {
+        added.addAndGet(addedDocuments);
+        updated.addAndGet(updatedDocuments);
+    }
+
+    void deleted(int deletedDocuments) {
+        deleted.addAndGet(deletedDocuments);
+    }
+
+    void retried() {
+        retries.incrementAndGet();
+    }
+
+    void failed(List<String> ids, String message) {
+        failed.addAndGet(ids.size());
+        synchronized (errors) {
+            for (String id : ids) {
+                if (errors.size() < MAX_ERRORS) {
+                    errors.add(id + ": " + message);
+                }
+            }
+        }
+    }
+
+    void finish(State finalState, String message) {
+        if (message != null) {
+            synchronized (errors) {
+                errors.add(message);
+            }
+        }
+        finishedAt = Instant.now();
+        state = finalState;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public Instant getSubmittedAt() {
+        return submittedAt;
+    }
+
+    public Instant getStartedAt() {
+        return startedAt;
+    }
+
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    /**
+     * Documents read from the source so far; final once {@link #isSourceRead()}.
+     */
+    public int getTotal() {
+        return total.get();
+    }
+
+    public boolean isSourceRead() {
+        return sourceRead;
+    }
+
+    /**
+     * Documents that are done, whether stored, skipped as unchanged or given up on.
+     */
+    public int getProcessed() {
+        return added.get() + updated.get() + unchanged.get() + failed.get();
+    }
+
+    public int getAdded() {
+        return added.get();
+    }
+
+    public int getUpdated() {
+        return updated.get();
+    }
+
+    public int getDeleted() {
+        return deleted.get();
+    }
+
+    public int getUnchanged() {
+        return unchanged.get();
+    }
+
+    public int getFailed() {
+        return failed.get();
+    }
+
+    public int getRetries() {
+        return retries.get();
+    }
+
+    /**
+     * Embedded and stored documents per second since the job started (unchanged documents cost nothing and are not counted).
+     */
+    public double getDocsPerSecond() {
+        Instant start = startedAt;
+        if (start == null) {
+            return 0;
+        }
+        Instant end = finishedAt != null ? finishedAt : Instant.now();
+        double seconds = Math.max(0.001, (end.toEpochMilli() - start.toEpochMilli()) / 1000.0);
+        return (added.get() + updated.get()) / seconds;
+    }
+
+    public List<String> getErrors() {
+        synchronized (errors) {
+            return List.copyOf(errors);
+        }
+    }
+}
@@ -0,0 +1,496 @@
+package com.example.chatml.service;
+
+import com.example.chatml.config.WorkerThreads;
+import com.example.chatml.model.IngestionResult;
+import com.example.chatml.service.PortfolioIngestionService.PortfolioDocument;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs portfolio ingestion as background jobs, one job at a time so each diff sees the previous
+ * job's result. A job streams its items from a {@link Source}; changed documents are grouped into
+ * batches that a fixed pool of workers embeds and stores in parallel while reading continues.
+ * A batch that fails is retried with exponential backoff; when Azure answers 429 every worker
+ * pauses for its Retry-After, and a rejected request (other 4xx) is retried document by document
+ * so one bad item does not fail its whole batch. All of this fits in {@code ingestion.batch-timeout-ms}
+ * per batch, after which its remaining documents are reported as failed.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class IngestionJobService {
+
+    private static final int RETAINED_JOBS = 20;
+
+    // How long shutdown waits for the running job's batches before persisting what was stored
+    private static final long SHUTDOWN_GRACE_SECONDS = 10;
+
+    private final PortfolioIngestionService ingestionService;
+    private final WorkerThreads workerThreads;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Value("${ingestion.workers:4}")
+    private int workers;
+
+    // Jobs that may wait behind the running one; submit rejects any more
+    @Value("${ingestion.max-queued-jobs:4}")
+    private int maxQueuedJobs;
+
+    @Value("${ingestion.batch-size:16}")
+    private int batchSize;
+
+    @Value("${ingestion.retry.max-attempts:4}")
+    private int maxAttempts;
+
+    @Value("${ingestion.retry.backoff-ms:1000}")
+    private long backoffMs;
+
+    @Value("${ingestion.retry.max-backoff-ms:30000}")
+    private long maxBackoffMs;
+
+    @Value("${ingestion.batch-timeout-ms:300000}")
+    private long batchTimeoutMs;
+
+    // Most recent jobs by id, oldest evicted first
+    private final Map<String, IngestionJob> jobs = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, IngestionJob> eldest) {
+            return size() > RETAINED_JOBS;
+        }
+    };
+
+    // Set when Azure answers 429: no worker sends anything before this time (epoch millis)
+    private final AtomicLong pausedUntil = new AtomicLong();
+
+    // Deadlines of the batches being stored, cancelled on shutdown to abort their calls in flight
+    private final Set<Deadline> activeBatches = ConcurrentHashMap.newKeySet();
+
+    private ThreadPoolExecutor coordinator;
+    private ExecutorService workerPool;
+
+    @PostConstruct
+    void init() {
+        coordinator = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, maxQueuedJobs)), workerThreads.factory("ingestion-job"));
+        workerPool = Executors.newFixedThreadPool(Math.max(1, workers), workerThreads.factory("ingestion-worker"));
+    }
+
+    @PreDestroy
+    void shutdown() throws InterruptedException {
+        for (Runnable dropped : coordinator.shutdownNow()) {
+            if (dropped instanceof QueuedJob queued) {
+                queued.drop("Dropped by shutdown before it started");
+            }
+        }
+        workerPool.shutdownNow();
+        activeBatches.forEach(Deadline::cancel);
+        long waitUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(SHUTDOWN_GRACE_SECONDS);
+        boolean terminated = coordinator.awaitTermination(SHUTDOWN_GRACE_SECONDS, TimeUnit.SECONDS)
+                && workerPool.awaitTermination(Math.max(0, waitUntil - System.nanoTime()), TimeUnit.NANOSECONDS);
+        if (!terminated) {
+            log.warn("Ingestion workers still running after {} s, persisting what was stored so far", SHUTDOWN_GRACE_SECONDS);
+        }
+        ingestionService.flush();
+    }
+
+    /**
+     * Where a job reads its portfolio items from. It is opened on the job thread and parsed one item
+     * at a time while earlier batches are being stored; closing the stream releases the source.
+     */
+    @FunctionalInterface
+    public interface Source {
+        InputStream open() throws IOException;
+
+        /**
+         * Releases the source of a job that is dropped without being run.
+         */
+        default void discard() throws IOException {
+        }
+
+        /**
+         * A file written for one job: deleted once the job has read it, or when the job is dropped.
+         */
+        static Source spooledFile(Path file) {
+            return new Source() {
+                @Override
+                public InputStream open() throws IOException {
+                    return Files.newInputStream(file, StandardOpenOption.DELETE_ON_CLOSE);
+                }
+
+                @Override
+                public void discard() throws IOException {
+                    Files.deleteIfExists(file);
+                }
+            };
+        }
+    }
+
+    /**
+     * Queues an ingestion of the items in {@code source} and returns its job right away. With
+     * {@code deleteMissing} the source is the whole portfolio and stored ids it does not contain are deleted.
+     *
+     * @throws RejectedExecutionException when {@code ingestion.max-queued-jobs} jobs are already waiting;
+     *                                    the source is discarded
+     */
+    public IngestionJob submit(Source source, boolean deleteMissing) {
+        IngestionJob job = new IngestionJob();
+        synchronized (jobs) {
+            jobs.put(job.getId(), job);
+        }
+        QueuedJob queued = new QueuedJob(job, source, deleteMissing);
+        try {
+            coordinator.execute(queued);
+        } catch (RejectedExecutionException e) {
+            synchronized (jobs) {
+                jobs.remove(job.getId());
+            }
+            queued.drop("Too many ingestion jobs queued");
+            throw e;
+        }
+        return job;
+    }
+
+    public IngestionJob get(String id) {
+        synchronized (jobs) {
+            return jobs.get(id);
+        }
+    }
+
+    /**
+     * Retained jobs, most recent first.
+     */
+    public List<IngestionJob> recent() {
+        List<IngestionJob> recent;
+        synchronized (jobs) {
+            recent = new ArrayList<>(jobs.values());
+        }
+        Collections.reverse(recent);
+        return recent;
+    }
+
+    /**
+     * A job on the coordinator's queue, kept whole so a job dropped from it can release its source.
+     */
+    private final class QueuedJob implements Runnable {
+
+        private final IngestionJob job;
+        private final Source source;
+        private final boolean deleteMissing;
+
+        QueuedJob(IngestionJob job, Source source, boolean deleteMissing) {
+            this.job = job;
+            this.source = source;
+            this.deleteMissing = deleteMissing;
+        }
+
+        @Override
+        public void run() {
+            IngestionJobService.this.run(job, source, deleteMissing);
+        }
+
+        void drop(String reason) {
+            job.finish(IngestionJob.State.FAILED, reason);
+            try {
+                source.discard();
+            } catch (IOException e) {
+                log.warn("Could not discard the source of ingestion job {}: {}", job.getId(), e.getMessage());
+            }
+        }
+    }
+
+    private void run(IngestionJob job, Source source, boolean deleteMissing) {
+        job.start();
+        int maxInFlight = Math.max(1, workers) * 2;
+        // Batches read but not yet stored; the reader waits for a permit, so memory stays flat whatever the input size
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        try {
+            Set<String> seenIds = new HashSet<>();
+            boolean manifestComplete;
+            try (InputStream body = source.open(); PortfolioItemReader items = new PortfolioItemReader(objectMapper, body)) {
+                manifestComplete = ingestionService.loadManifest();
+                int size = Math.max(1, batchSize);
+                List<PortfolioDocument> batch = new ArrayList<>(size);
+                try {
+                    while (items.hasNext()) {
+                        Map<String, Object> item = items.next();
+                        PortfolioDocument document;
+                        try {
+                            document = ingestionService.toDocument(item);
+                        } catch (InvalidPortfolioItemException e) {
+                            // Reported and left as stored: its id still counts as present, so it is not deleted
+                            seenIds.add(e.getItemId());
+                            job.found(false);
+                            job.failed(List.of(e.getItemId()), e.getMessage());
+                            continue;
+                        }
+                        if (document == null) {
+                            continue;
+                        }
+                        if (!seenIds.add(document.id())) {
+                            // Batches run in parallel, so a later copy could land before the first one
+                            job.found(false);
+                            job.failed(List.of(document.id()), "duplicate id in the source, first occurrence kept");
+                            continue;
+                        }
+                        boolean unchanged = ingestionService.isUnchanged(document);
+                        job.found(unchanged);
+                        if (unchanged) {
+                            continue;
+                        }
+                        batch.add(document);
+                        if (batch.size() == size) {
+                            // Handed off before dispatch, which may throw: a batch is never dispatched twice
+                            List<PortfolioDocument> full = batch;
+                            batch = new ArrayList<>(size);
+                            dispatch(job, full, inFlight);
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    // Items read before a parse error are complete: store them too
+                    if (!batch.isEmpty()) {
+                        dispatch(job, batch, inFlight);
+                    }
+                    throw e;
+                }
+                if (!batch.isEmpty()) {
+                    dispatch(job, batch, inFlight);
+                }
+            }
+            job.sourceRead();
+            log.info("Ingestion job {}: read {} documents, {} unchanged", job.getId(), job.getTotal(), job.getUnchanged());
+
+            inFlight.acquire(maxInFlight);
+            if (deleteMissing && manifestComplete) {
+                deleteWithRetry(job, ingestionService.staleIds(seenIds));
+            }
+            ingestionService.flush();
+            job.finish(IngestionJob.State.COMPLETED, null);
+            log.info("Ingestion job {} completed: {} added, {} updated, {} deleted, {} unchanged, {} failed",
+                    job.getId(), job.getAdded(), job.getUpdated(), job.getDeleted(), job.getUnchanged(), job.getFailed());
+        } catch (InterruptedException | RejectedExecutionException e) {
+            // Only shutdown interrupts the job thread or rejects batches
+            awaitBatches(inFlight, maxInFlight);
+            job.finish(IngestionJob.State.FAILED, "Stopped by shutdown");
+            Thread.currentThread().interrupt();
+        } catch (IOException | RuntimeException e) {
+            // Nothing is deleted: a source that could not be read to the end says nothing about missing ids
+            String message = e instanceof UncheckedIOException ? e.getCause().getMessage() : e.getMessage();
+            log.error("Ingestion job {} failed: {}", job.getId(), message);
+            awaitBatches(inFlight, maxInFlight);
+            ingestionService.flush();
+            job.finish(IngestionJob.State.FAILED, "Could not read portfolio items: " + message);
+        }
+    }
+
+    /**
+     * Waits for the dispatched batches to finish, so the job's counters are final. After shutdown the
+     * pool drops batches still queued, which never release their permits: stop waiting then.
+     */
+    private void awaitBatches(Semaphore inFlight, int permits) {
+        boolean interrupted = Thread.interrupted();
+        try {
+            while (!inFlight.tryAcquire(permits, 100, TimeUnit.MILLISECONDS)) {
+                if (workerPool.isShutdown()) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            interrupted = true;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void dispatch(IngestionJob job, List<PortfolioDocument> batch, Semaphore inFlight) throws InterruptedException {
+        inFlight.acquire();
+        try {
+            workerPool.execute(() -> {
+                // Bounds the retries and backoff below, and aborts calls still running when it expires
+                Deadline deadline = Deadline.after(batchTimeoutMs);
+                activeBatches.add(deadline);
+                try (Deadline.Scope scope = deadline.activate()) {
+                    storeWithRetry(job, batch);
+                } finally {
+                    activeBatches.remove(deadline);
+                    inFlight.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Stores {@code batch}, retrying until it is stored, fails for good, or the batch deadline (active on
+     * this thread) expires.
+     */
+    private void storeWithRetry(IngestionJob job, List<PortfolioDocument> batch) {
+        Deadline deadline = Deadline.current();
+        List<PortfolioDocument> pending = batch;
+        String lastError = null;
+        for (int attempt = 1; ; attempt++) {
+            if (deadline.isExpired()) {
+                String reason = workerPool.isShutdown() ? "stopped by shutdown"
+                        : "batch time limit of " + batchTimeoutMs + " ms exceeded";
+                lastError = reason + (lastError != null ? ", last error: " + lastError : "");
+                break;
+            }
+            try {
+                awaitPause(deadline);
+                IngestionResult result = ingestionService.store(pending);
+                job.stored(result.added(), result.updated());
+                if (!result.hasFailures()) {
+                    return;
+                }
+                Set<String> failedIds = new HashSet<>(result.failedIds());
+                pending = pending.stream().filter(document -> failedIds.contains(document.id())).toList();
+                lastError = "rejected by the vector store";
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                job.failed(ids(pending), "interrupted");
+                return;
+            } catch (RuntimeException e) {
+                lastError = e.getMessage();
+                if (!isTransient(e)) {
+                    if (pending.size() > 1) {
+                        // One bad document fails the whole embedding request: find it by sending them singly
+                        log.warn("Ingestion batch of {} rejected ({}), retrying its documents one by one",
+                                pending.size(), e.getMessage());
+                        for (PortfolioDocument document : pending) {
+                            storeWithRetry(job, List.of(document));
+                        }
+                        return;
+                    }
+                    break;
+                }
+                pauseIfThrottled(e);
+            }
+            if (attempt >= maxAttempts || !backOff(attempt, deadline)) {
+                break;
+            }
+            job.retried();
+        }
+        job.failed(ids(pending), lastError);
+    }
+
+    private void deleteWithRetry(IngestionJob job, List<String> stale) {
+        if (stale.isEmpty()) {
+            return;
+        }
+        for (int attempt = 1; ; attempt++) {
+            try {
+                ingestionService.deleteStale(stale);
+                job.deleted(stale.size());
+                return;
+            } catch (RuntimeException e) {
+                if (!isTransient(e) || attempt >= maxAttempts || !backOff(attempt, null)) {
+                    job.failed(stale, "delete failed: " + e.getMessage());
+                    return;
+                }
+                job.retried();
+            }
+        }
+    }
+
+    /**
+     * Rejections by the caller's own request (4xx other than 429) will fail again; everything else may pass on retry.
+     */
+    private static boolean isTransient(RuntimeException e) {
+        Throwable cause = e instanceof HttpClientErrorException ? e : e.getCause();
+        if (cause instanceof HttpClientErrorException clientError) {
+            return clientError instanceof HttpClientErrorException.TooManyRequests;
+        }
+        return true;
+    }
+
+    /**
+     * Azure rate limiting: honour retry-after-ms / Retry-After, for every worker, not just this one.
+     */
+    private void pauseIfThrottled(RuntimeException e) {
+        Throwable cause = e instanceof HttpClientErrorException ? e : e.getCause();
+        if (!(cause instanceof HttpClientErrorException.TooManyRequests tooManyRequests)) {
+            return;
+        }
+        long delayMs = backoffMs;
+        HttpHeaders headers = tooManyRequests.getResponseHeaders();
+        if (headers != null) {
+            try {
+                String retryAfterMs = headers.getFirst("retry-after-ms");
+                String retryAfter = headers.getFirst(HttpHeaders.RETRY_AFTER);
+                if (retryAfterMs != null) {
+                    delayMs = Long.parseLong(retryAfterMs.trim());
+                } else if (retryAfter != null) {
+                    delayMs = Long.parseLong(retryAfter.trim()) * 1000;
+                }
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        long until = System.currentTimeMillis() + Math.min(delayMs, maxBackoffMs);
+        pausedUntil.accumulateAndGet(until, Math::max);
+        log.warn("Azure rate limited ingestion, pausing workers for {} ms", Math.min(delayMs, maxBackoffMs));
+    }
+
+    private void awaitPause(Deadline deadline) throws InterruptedException {
+        long wait = Math.min(pausedUntil.get() - System.currentTimeMillis(), deadline.remainingMillis());
+        if (wait > 0) {
+            Thread.sleep(wait);
+        }
+    }
+
+    /**
+     * Sleeps {@code backoffMs * 2^(attempt-1)} (capped, with jitter, and no longer than what is left of
+     * {@code deadline} if there is one); false if interrupted.
+     */
+    private boolean backOff(int attempt, Deadline deadline) {
+        long delay = Math.min(maxBackoffMs, backoffMs << Math.min(attempt - 1, 20));
+        long jittered = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+        if (deadline != null) {
+            jittered = Math.min(jittered, deadline.remainingMillis());
+        }
+        try {
+            Thread.sleep(jittered);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static List<String> ids(List<PortfolioDocument> documents) {
+        return documents.stream().map(PortfolioDocument::id).toList();
+    }
+}
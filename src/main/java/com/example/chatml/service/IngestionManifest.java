@@ -0,0 +1,94 @@
+package com.example.chatml.service;
+
+import com.example.chatml.model.RetrievedChunk;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Content hash of every ingested document by id, so a reload only embeds and upserts what changed
+ * and can tell which ids disappeared from the source. The hash covers exactly what is stored
+ * (document text and metadata), so after a restart the manifest is rebuilt from the vector store
+ * itself instead of being persisted separately.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class IngestionManifest {
+
+    private final VectorStore vectorStore;
+
+    private final Map<String, String> hashes = new ConcurrentHashMap<>();
+    private volatile boolean seeded;
+
+    /**
+     * The stored hash for {@code id}, or null if the id has not been ingested.
+     */
+    public String get(String id) {
+        return hashes.get(id);
+    }
+
+    public Set<String> ids() {
+        return new HashSet<>(hashes.keySet());
+    }
+
+    public void put(String id, String hash) {
+        hashes.put(id, hash);
+    }
+
+    public void remove(String id) {
+        hashes.remove(id);
+    }
+
+    public static String hash(String text, Map<String, Object> metadata) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(text.getBytes(StandardCharsets.UTF_8));
+            // Sorted, so the hash does not depend on the map's iteration order
+            for (Map.Entry<String, Object> entry : new TreeMap<>(metadata).entrySet()) {
+                digest.update((byte) 0);
+                digest.update(entry.getKey().getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) '=');
+                digest.update(String.valueOf(entry.getValue()).getBytes(StandardCharsets.UTF_8));
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Hashes what the vector store already holds, once; retried on the next call if the store is
+     * unreachable. Returns whether the manifest reflects the vector store: until it does, ids missing
+     * from a reload cannot be told apart from ids that were never seen, so nothing should be deleted.
+     */
+    public synchronized boolean ensureSeeded() {
+        if (seeded) {
+            return true;
+        }
+        try {
+            int count = 0;
+            for (RetrievedChunk chunk : vectorStore.getAllDocuments()) {
+                if (chunk.id() != null && chunk.document() != null) {
+                    hashes.put(chunk.id(), hash(chunk.document(), chunk.metadata()));
+                    count++;
+                }
+            }
+            seeded = true;
+            log.info("Ingestion manifest seeded with {} documents from the vector store", count);
+        } catch (RuntimeException e) {
+            log.warn("Could not seed ingestion manifest, treating every document as new: {}", e.getMessage());
+        }
+        return seeded;
+    }
+}
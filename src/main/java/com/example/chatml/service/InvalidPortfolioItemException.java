@@ -0,0 +1,18 @@
+package com.example.chatml.service;
+
+/**
+ * Thrown for a portfolio item whose fields have the wrong type; the job reports it and reads on.
+ */
+public class InvalidPortfolioItemException extends RuntimeException {
+
+    private final String itemId;
+
+    public InvalidPortfolioItemException(String itemId, String reason) {
+        super(reason);
+        this.itemId = itemId;
+    }
+
+    public String getItemId() {
+        return itemId;
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.chatml.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Aho-Corasick automaton over lower-cased keywords. Each keyword is tagged with an int slot and
+ * {@link #match} reports every slot whose keyword occurs anywhere in the text, in one pass.
+ * Immutable once built, so it can be shared between request threads.
+ */
+final class KeywordAutomaton {
+
+    private final List<Map<Character, Integer>> transitions = new ArrayList<>();
+    private final List<BitSet> outputs = new ArrayList<>();
+    private int[] failure;
+    private final int slotCount;
+
+    private KeywordAutomaton(int slotCount) {
+        this.slotCount = slotCount;
+        newState();
+    }
+
+    /**
+     * Builds an automaton from keyword → slot pairs. Keywords are matched case-insensitively as substrings.
+     */
+    static KeywordAutomaton build(Map<String, List<Integer>> slotsByKeyword, int slotCount) {
+        KeywordAutomaton automaton = new KeywordAutomaton(slotCount);
+        slotsByKeyword.forEach((keyword, slots) -> automaton.addKeyword(keyword.toLowerCase(), slots));
+        automaton.linkFailures();
+        return automaton;
+    }
+
+    /**
+     * Returns the slots of all keywords found in {@code text}.
+     */
+    BitSet match(String text) {
+        BitSet matched = new BitSet(slotCount);
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = Character.toLowerCase(text.charAt(i));
+            Integer next = transitions.get(state).get(c);
+            while (next == null && state != 0) {
+                state = failure[state];
+                next = transitions.get(state).get(c);
+            }
+            state = next != null ? next : 0;
+            matched.or(outputs.get(state));
+        }
+        return matched;
+    }
+
+    private int newState() {
+        transitions.add(new HashMap<>(4));
+        outputs.add(new BitSet(slotCount));
+        return transitions.size() - 1;
+    }
+
+    private void addKeyword(String keyword, List<Integer> slots) {
+        if (keyword.isEmpty()) {
+            return;
+        }
+        int state = 0;
+        for (int i = 0; i < keyword.length(); i++) {
+            char c = keyword.charAt(i);
+            Integer next = transitions.get(state).get(c);
+            if (next == null) {
+                next = newState();
+                transitions.get(state).put(c, next);
+            }
+            state = next;
+        }
+        for (int slot : slots) {
+            outputs.get(state).set(slot);
+        }
+    }
+
+    /**
+     * Breadth-first construction of failure links; each state also inherits the outputs of its
+     * failure state so matching never has to walk the failure chain to collect keywords.
+     */
+    private void linkFailures() {
+        failure = new int[transitions.size()];
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int child : transitions.get(0).values()) {
+            failure[child] = 0;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            for (Map.Entry<Character, Integer> edge : transitions.get(state).entrySet()) {
+                char c = edge.getKey();
+                int child = edge.getValue();
+                int fallback = failure[state];
+                while (fallback != 0 && !transitions.get(fallback).containsKey(c)) {
+                    fallback = failure[fallback];
+                }
+                Integer target = transitions.get(fallback).get(c);
+                failure[child] = target != null && target != child ? target : 0;
+                outputs.get(child).or(outputs.get(failure[child]));
+                queue.add(child);
+            }
+        }
+    }
+}
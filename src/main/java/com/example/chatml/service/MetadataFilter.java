@@ -0,0 +1,110 @@
+package com.example.chatml.service;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.IntPredicate;
+
+/**
+ * Evaluates Chroma-style {@code where} filters against document metadata, so local
+ * backends accept the same filters RagChatService sends to Chroma.
+ * Supports plain equality, $eq, $ne, $gt, $gte, $lt, $lte, $in, $nin, $and and $or.
+ */
+final class MetadataFilter {
+
+    private MetadataFilter() {
+    }
+
+    static boolean matches(Map<String, Object> where, Map<String, Object> metadata) {
+        if (where == null || where.isEmpty()) {
+            return true;
+        }
+        for (Map.Entry<String, Object> clause : where.entrySet()) {
+            String key = clause.getKey();
+            Object condition = clause.getValue();
+
+            if ("$and".equals(key)) {
+                for (Object sub : (Collection<?>) condition) {
+                    if (!matches(asMap(sub), metadata)) {
+                        return false;
+                    }
+                }
+            } else if ("$or".equals(key)) {
+                boolean any = false;
+                for (Object sub : (Collection<?>) condition) {
+                    if (matches(asMap(sub), metadata)) {
+                        any = true;
+                        break;
+                    }
+                }
+                if (!any) {
+                    return false;
+                }
+            } else {
+                Object actual = metadata != null ? metadata.get(key) : null;
+                if (!matchesField(actual, condition)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean matchesField(Object actual, Object condition) {
+        if (!(condition instanceof Map<?, ?> operators)) {
+            return valueEquals(actual, condition);
+        }
+        for (Map.Entry<?, ?> operator : operators.entrySet()) {
+            Object expected = operator.getValue();
+            boolean ok = switch (String.valueOf(operator.getKey())) {
+                case "$eq" -> valueEquals(actual, expected);
+                case "$ne" -> !valueEquals(actual, expected);
+                case "$gt" -> compare(actual, expected, c -> c > 0);
+                case "$gte" -> compare(actual, expected, c -> c >= 0);
+                case "$lt" -> compare(actual, expected, c -> c < 0);
+                case "$lte" -> compare(actual, expected, c -> c <= 0);
+                case "$in" -> ((Collection<?>) expected).stream().anyMatch(v -> valueEquals(actual, v));
+                case "$nin" -> ((Collection<?>) expected).stream().noneMatch(v -> valueEquals(actual, v));
+                default -> throw new IllegalArgumentException("Unsupported where operator: " + operator.getKey());
+            };
+            if (!ok) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean valueEquals(Object actual, Object expected) {
+        if (actual instanceof Number a && expected instanceof Number b) {
+            return a.doubleValue() == b.doubleValue();
+        }
+        return Objects.equals(actual, expected);
+    }
+
+    /**
+     * Numeric comparison; missing or non-numeric values never satisfy a range operator.
+     */
+    private static boolean compare(Object actual, Object expected, IntPredicate test) {
+        Double a = toDouble(actual);
+        Double b = toDouble(expected);
+        return a != null && b != null && test.test(a.compareTo(b));
+    }
+
+    private static Double toDouble(Object value) {
+        if (value instanceof Number number) {
+            return number.doubleValue();
+        }
+        if (value instanceof String text) {
+            try {
+                return Double.parseDouble(text);
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> asMap(Object value) {
+        return (Map<String, Object>) value;
+    }
+}
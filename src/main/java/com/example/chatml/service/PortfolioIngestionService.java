@@ -1,30 +1,138 @@
 package com.example.chatml.service;
 
+import com.example.chatml.model.Embedding;
+import com.example.chatml.model.IngestionResult;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+/**
+ * The stages of an ingestion run, driven by {@link IngestionJobService}: turning portfolio items into
+ * documents, diffing them against the manifest, storing changed documents in every store and deleting
+ * stale ones. Runs never overlap, because the job service runs one job at a time.
+ */
 @Service
 @RequiredArgsConstructor
 public class PortfolioIngestionService {
 
     private final AzureEmbeddingClient embeddingClient;
-    private final ChromaClient chromaClient;
+    private final VectorStore vectorStore;
+    private final AnswerCache answerCache;
+    private final Bm25Index bm25Index;
+    private final IngestionManifest manifest;
 
     /**
-     * Ingests a single portfolio item (Map) into ChromaDB.
-     * Now includes metadata for better filtering and ranking.
+     * Seeds the manifest from the vector store if needed; false while it cannot tell what is stored,
+     * in which case nothing may be deleted as stale.
      */
-    public void ingestPortfolio(Map<String, Object> portfolio) {
+    public boolean loadManifest() {
+        return manifest.ensureSeeded();
+    }
+
+    /**
+     * Whether the stored copy of this document has the same content hash.
+     */
+    public boolean isUnchanged(PortfolioDocument document) {
+        return document.hash().equals(manifest.get(document.id()));
+    }
+
+    /**
+     * Stored ids that are not among {@code currentIds}.
+     */
+    public List<String> staleIds(Set<String> currentIds) {
+        return manifest.ids().stream().filter(id -> !currentIds.contains(id)).toList();
+    }
+
+    /**
+     * Embeds and stores a batch of planned documents. Returns the added and updated counts and the
+     * ids the vector store rejected; an embedding failure is thrown and nothing of the batch is stored.
+     */
+    public IngestionResult store(List<PortfolioDocument> documents) {
+        if (documents.isEmpty()) {
+            return new IngestionResult(0, 0, 0, 0, List.of());
+        }
+
+        // 3. Generate embeddings, a batch of documents per Azure request
+        List<Embedding> embeddings = embeddingClient.getEmbeddings(
+                documents.stream().map(PortfolioDocument::text).toList());
+
+        // 4. Add to the vector store with metadata, several documents per request
+        List<VectorStore.Document> upserts = new ArrayList<>(documents.size());
+        for (int i = 0; i < documents.size(); i++) {
+            PortfolioDocument document = documents.get(i);
+            upserts.add(new VectorStore.Document(document.id(), embeddings.get(i), document.text(), document.metadata()));
+        }
+        List<String> failedIds = vectorStore.upsertAll(upserts);
+
+        // 5. Keyword index and manifest only take what the vector store accepted, so all three stay in step
+        Set<String> failed = new HashSet<>(failedIds);
+        int added = 0;
+        int updated = 0;
+        for (PortfolioDocument document : documents) {
+            if (failed.contains(document.id())) {
+                continue;
+            }
+            if (manifest.get(document.id()) == null) {
+                added++;
+            } else {
+                updated++;
+            }
+            bm25Index.addOrUpdate(document.id(), document.text(), document.metadata());
+            manifest.put(document.id(), document.hash());
+        }
+
+        // 6. Cached answers may now be stale
+        if (added + updated > 0) {
+            answerCache.invalidateAll();
+        }
+        return new IngestionResult(added, updated, 0, 0, failedIds);
+    }
+
+    /**
+     * Deletes ids that are no longer in the source from every store. Throws if the vector store delete fails.
+     */
+    public void deleteStale(List<String> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        vectorStore.delete(ids);
+        for (String id : ids) {
+            bm25Index.remove(id);
+            manifest.remove(id);
+        }
+        answerCache.invalidateAll();
+    }
+
+    /**
+     * Builds the document text and metadata for one portfolio item, or returns null if it should be skipped.
+     *
+     * @throws InvalidPortfolioItemException if the id, duration or a list field has the wrong type
+     */
+    public PortfolioDocument toDocument(Map<String, Object> portfolio) {
         // 1. Validate and extract the unique ID
-        String portfolioId = (String) portfolio.get("id");
-        if (portfolioId == null || portfolioId.isBlank()) {
+        Object idObj = portfolio.get("id");
+        if (idObj == null || idObj instanceof String blank && blank.isBlank()) {
             System.err.println("Portfolio item is missing a unique 'id' field. Skipping ingestion.");
-            return;
+            return null;
+        }
+        if (!(idObj instanceof String portfolioId)) {
+            throw new InvalidPortfolioItemException(idObj.toString(), "'id' must be a string");
         }
+        List<String> responsibilities = strings(portfolio, "responsibilities", portfolioId);
+        List<String> achievements = strings(portfolio, "achievements", portfolioId);
+        List<String> tech = strings(portfolio, "technologies", portfolioId);
+        List<String> tags = strings(portfolio, "tags", portfolioId);
+        Object durationObj = portfolio.get("duration");
+        if (durationObj != null && !(durationObj instanceof String)) {
+            throw new InvalidPortfolioItemException(portfolioId, "'duration' must be a string");
+        }
+        String duration = (String) durationObj;
 
         // 2. BUILD RICH DOCUMENT TEXT
         StringBuilder doc = new StringBuilder();
@@ -57,81 +165,72 @@ public class PortfolioIngestionService {
         }
 
         // Responsibilities (for experience)
-        if (portfolio.containsKey("responsibilities")) {
-            List<String> responsibilities = (List<String>) portfolio.get("responsibilities");
-            if (responsibilities != null && !responsibilities.isEmpty()) {
-                doc.append("RESPONSIBILITIES: ").append(String.join(", ", responsibilities)).append(". ");
-            }
+        if (responsibilities != null && !responsibilities.isEmpty()) {
+            doc.append("RESPONSIBILITIES: ").append(String.join(", ", responsibilities)).append(". ");
         }
 
         // Achievements
-        if (portfolio.containsKey("achievements")) {
-            List<String> achievements = (List<String>) portfolio.get("achievements");
-            if (achievements != null && !achievements.isEmpty()) {
-                doc.append("ACHIEVEMENTS: ").append(String.join(", ", achievements)).append(". ");
-            }
+        if (achievements != null && !achievements.isEmpty()) {
+            doc.append("ACHIEVEMENTS: ").append(String.join(", ", achievements)).append(". ");
         }
 
         // Technologies
-        if (portfolio.containsKey("technologies")) {
-            List<String> tech = (List<String>) portfolio.get("technologies");
-            if (tech != null && !tech.isEmpty()) {
-                doc.append("TECHNOLOGIES: ").append(String.join(", ", tech)).append(". ");
-            }
+        if (tech != null && !tech.isEmpty()) {
+            doc.append("TECHNOLOGIES: ").append(String.join(", ", tech)).append(". ");
         }
 
         String documentText = doc.toString().trim();
 
         if (documentText.length() < 50) {
             System.err.println("Document text is too short to be meaningful for ID: " + portfolioId + ". Skipping.");
-            return;
+            return null;
         }
 
-        // 3. Generate embedding
-        List<Double> embedding = embeddingClient.getEmbedding(documentText);
-
-        // 4. BUILD METADATA FOR FILTERING AND RANKING
+        // 3. BUILD METADATA FOR FILTERING AND RANKING
         Map<String, Object> metadata = new HashMap<>();
         metadata.put("source", "portfolio");
         metadata.put("category", portfolio.getOrDefault("category", "Unknown"));
 
+        // Title and company are used by the company/project where filters
+        if (portfolio.get("title") != null) {
+            metadata.put("title", portfolio.get("title").toString());
+        }
+        if (portfolio.get("company") != null) {
+            metadata.put("company", portfolio.get("company").toString());
+        }
+
         // Add rank (CRITICAL for ordering) - convert to string for ChromaDB
-        if (portfolio.containsKey("rank")) {
-            Object rankObj = portfolio.get("rank");
-            metadata.put("rank", rankObj.toString());
+        if (portfolio.get("rank") != null) {
+            metadata.put("rank", portfolio.get("rank").toString());
         }
 
         // Add tags as comma-separated string
-        if (portfolio.containsKey("tags")) {
-            List<String> tags = (List<String>) portfolio.get("tags");
-            if (tags != null && !tags.isEmpty()) {
-                metadata.put("tags", String.join(",", tags));
-            }
+        if (tags != null && !tags.isEmpty()) {
+            metadata.put("tags", String.join(",", tags));
         }
 
         // Extract year metadata from nested metadata object
         Object metadataObj = portfolio.get("metadata");
         if (metadataObj instanceof Map metaMap) {
-            if (metaMap.containsKey("year")) {
+            if (metaMap.get("year") != null) {
                 metadata.put("year", metaMap.get("year").toString());
             }
-            if (metaMap.containsKey("start_year")) {
+            if (metaMap.get("start_year") != null) {
                 metadata.put("start_year", metaMap.get("start_year").toString());
             }
-            if (metaMap.containsKey("end_year")) {
+            if (metaMap.get("end_year") != null) {
                 metadata.put("end_year", metaMap.get("end_year").toString());
             }
-            if (metaMap.containsKey("is_current")) {
+            if (metaMap.get("is_current") != null) {
                 metadata.put("is_current", metaMap.get("is_current").toString());
             }
-            if (metaMap.containsKey("employment_type")) {
+            if (metaMap.get("employment_type") != null) {
                 metadata.put("employment_type", metaMap.get("employment_type").toString());
             }
         }
 
         // If no start_year but we have duration, extract it
-        if (!metadata.containsKey("start_year") && portfolio.containsKey("duration")) {
-            String duration = (String) portfolio.get("duration");
+        if (!metadata.containsKey("start_year") && duration != null) {
             String startYear = extractStartYear(duration);
             if (startYear != null) {
                 metadata.put("start_year", startYear);
@@ -141,8 +240,36 @@ public class PortfolioIngestionService {
         System.out.println("✓ Ingesting [" + portfolioId + "] " + portfolio.get("title"));
         System.out.println("  Rank: " + metadata.get("rank") + " | Year: " + metadata.get("year"));
 
-        // 5. Add to ChromaDB with metadata
-        chromaClient.addOrUpdateEmbedding(portfolioId, embedding, documentText, metadata);
+        return new PortfolioDocument(portfolioId, documentText, metadata, IngestionManifest.hash(documentText, metadata));
+    }
+
+    /**
+     * Lets the vector store and embedding cache persist their state once a load has finished.
+     */
+    public void flush() {
+        vectorStore.flush();
+        embeddingClient.flushCache();
+    }
+
+    /**
+     * The list of strings in {@code field}, or null if the item has none.
+     */
+    private static List<String> strings(Map<String, Object> portfolio, String field, String portfolioId) {
+        Object value = portfolio.get(field);
+        if (value == null) {
+            return null;
+        }
+        if (!(value instanceof List<?> list)) {
+            throw new InvalidPortfolioItemException(portfolioId, "'" + field + "' must be a list of strings");
+        }
+        List<String> strings = new ArrayList<>(list.size());
+        for (Object item : list) {
+            if (!(item instanceof String string)) {
+                throw new InvalidPortfolioItemException(portfolioId, "'" + field + "' must be a list of strings");
+            }
+            strings.add(string);
+        }
+        return strings;
     }
 
     /**
@@ -159,4 +286,10 @@ public class PortfolioIngestionService {
         }
         return null;
     }
+
+    /**
+     * A portfolio item as it is embedded and stored, with the content hash the manifest compares.
+     */
+    public record PortfolioDocument(String id, String text, Map<String, Object> metadata, String hash) {
+    }
 }
\ No newline at end of file
@@ -0,0 +1,77 @@
+package com.example.chatml.service;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads portfolio items one at a time from a JSON array ({@code [{...}, {...}]}) or from NDJSON /
+ * concatenated objects ({@code {...}\n{...}}), so only the current item is held in memory whatever
+ * the size of the input. Parse errors surface as {@link UncheckedIOException} from {@link #hasNext}.
+ */
+public final class PortfolioItemReader implements Iterator<Map<String, Object>>, Closeable {
+
+    private static final TypeReference<Map<String, Object>> ITEM_TYPE = new TypeReference<>() {};
+
+    private final JsonParser parser;
+    private final boolean array;
+    private Map<String, Object> next;
+    private boolean started;
+
+    public PortfolioItemReader(ObjectMapper objectMapper, InputStream body) throws IOException {
+        this.parser = objectMapper.getFactory().createParser(body);
+        JsonToken first = parser.nextToken();
+        if (first != null && first != JsonToken.START_ARRAY && first != JsonToken.START_OBJECT) {
+            parser.close();
+            throw new IOException("Expected a JSON array or JSON objects, found " + first);
+        }
+        this.array = first == JsonToken.START_ARRAY;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != null) {
+            return true;
+        }
+        try {
+            // The first object of NDJSON is already the current token; otherwise advance to the next one
+            JsonToken token = !array && !started ? parser.currentToken() : parser.nextToken();
+            started = true;
+            if (token == null || token == JsonToken.END_ARRAY) {
+                return false;
+            }
+            if (token != JsonToken.START_OBJECT) {
+                throw new IOException("Expected a JSON object for each item, found " + token
+                        + " at " + parser.currentLocation());
+            }
+            next = parser.readValueAs(ITEM_TYPE);
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Map<String, Object> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Map<String, Object> item = next;
+        next = null;
+        return item;
+    }
+
+    @Override
+    public void close() throws IOException {
+        parser.close();
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.chatml.service;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Classifies a question into a metadata filter, retrieval count, context limit and temporal flag.
+ * Rules are read from {@code rag.routing.rules-location} (JSON) and compiled into a single
+ * Aho-Corasick automaton, so a question is scanned once no matter how many keywords exist.
+ * The rules file is re-read when its modification time changes.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class QueryRouter {
+
+    private final ResourceLoader resourceLoader;
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    @Value("${rag.routing.rules-location:classpath:query-routing.json}")
+    private String rulesLocation;
+
+    @Value("${rag.routing.reload-interval-ms:5000}")
+    private long reloadIntervalMs;
+
+    private volatile CompiledRules compiled;
+    private volatile long nextReloadCheck;
+    private final ReentrantLock reloadLock = new ReentrantLock();
+
+    /**
+     * Routing decision for one question. {@code filter} is null when no filter rule matched.
+     */
+    public record Route(Map<String, Object> filter, String filterName, int retrievalCount,
+                        int contextLimit, boolean temporal) {
+    }
+
+    /**
+     * JSON shape of the rules file.
+     */
+    record RuleSet(Defaults defaults, List<String> temporalKeywords, List<FilterRule> filters, List<SizingRule> sizing) {
+    }
+
+    record Defaults(int retrievalCount, int contextLimit) {
+    }
+
+    /**
+     * First matching filter rule (in file order) wins. A rule without "where" only labels the intent.
+     */
+    record FilterRule(String name, List<String> keywords, Map<String, Object> where) {
+    }
+
+    /**
+     * First matching sizing rule (in file order) wins.
+     */
+    record SizingRule(String name, List<String> keywords, int retrievalCount, int contextLimit) {
+    }
+
+    private record CompiledRules(RuleSet rules, KeywordAutomaton automaton, long lastModified) {
+    }
+
+    @PostConstruct
+    void init() {
+        compiled = compile(rulesLocation);
+        nextReloadCheck = System.currentTimeMillis() + reloadIntervalMs;
+        log.info("Loaded {} filter and {} sizing routing rules from {}",
+                compiled.rules().filters().size(), compiled.rules().sizing().size(), rulesLocation);
+    }
+
+    public Route route(String question) {
+        reloadIfChanged();
+        CompiledRules current = compiled;
+        RuleSet rules = current.rules();
+        BitSet matched = current.automaton().match(question);
+
+        int filterCount = rules.filters().size();
+        int sizingCount = rules.sizing().size();
+
+        Map<String, Object> filter = null;
+        String filterName = null;
+        int firstFilter = matched.nextSetBit(0);
+        if (firstFilter >= 0 && firstFilter < filterCount) {
+            FilterRule rule = rules.filters().get(firstFilter);
+            filter = rule.where() != null && !rule.where().isEmpty() ? rule.where() : null;
+            filterName = rule.name();
+        }
+
+        int retrievalCount = rules.defaults().retrievalCount();
+        int contextLimit = rules.defaults().contextLimit();
+        int firstSizing = matched.nextSetBit(filterCount);
+        if (firstSizing >= 0 && firstSizing < filterCount + sizingCount) {
+            SizingRule rule = rules.sizing().get(firstSizing - filterCount);
+            retrievalCount = rule.retrievalCount();
+            contextLimit = rule.contextLimit();
+        }
+
+        boolean temporal = matched.get(filterCount + sizingCount);
+        return new Route(filter, filterName, retrievalCount, contextLimit, temporal);
+    }
+
+    private void reloadIfChanged() {
+        long now = System.currentTimeMillis();
+        if (now < nextReloadCheck) {
+            return;
+        }
+        // Only one caller checks the file; everyone else keeps routing with the current rules.
+        if (!reloadLock.tryLock()) {
+            return;
+        }
+        try {
+            if (now < nextReloadCheck) {
+                return;
+            }
+            nextReloadCheck = now + reloadIntervalMs;
+            long lastModified = resourceLoader.getResource(rulesLocation).lastModified();
+            if (lastModified != compiled.lastModified()) {
+                compiled = compile(rulesLocation);
+                log.info("Reloaded routing rules from {}", rulesLocation);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Keeping previous routing rules, reload of {} failed: {}", rulesLocation, e.getMessage());
+        } finally {
+            reloadLock.unlock();
+        }
+    }
+
+    private CompiledRules compile(String location) {
+        Resource resource = resourceLoader.getResource(location);
+        RuleSet rules;
+        long lastModified;
+        try (InputStream in = resource.getInputStream()) {
+            lastModified = resource.lastModified();
+            rules = objectMapper.readValue(in, RuleSet.class);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read routing rules from " + location, e);
+        }
+        rules = new RuleSet(
+                rules.defaults() != null ? rules.defaults() : new Defaults(5, 3),
+                rules.temporalKeywords() != null ? rules.temporalKeywords() : List.of(),
+                rules.filters() != null ? rules.filters() : List.of(),
+                rules.sizing() != null ? rules.sizing() : List.of());
+
+        // Slots: filter rules first, then sizing rules, then one slot for "temporal".
+        Map<String, List<Integer>> slotsByKeyword = new HashMap<>();
+        int slot = 0;
+        for (FilterRule rule : rules.filters()) {
+            addKeywords(slotsByKeyword, rule.keywords(), slot++);
+        }
+        for (SizingRule rule : rules.sizing()) {
+            addKeywords(slotsByKeyword, rule.keywords(), slot++);
+        }
+        addKeywords(slotsByKeyword, rules.temporalKeywords(), slot++);
+
+        return new CompiledRules(rules, KeywordAutomaton.build(slotsByKeyword, slot), lastModified);
+    }
+
+    private static void addKeywords(Map<String, List<Integer>> slotsByKeyword, List<String> keywords, int slot) {
+        if (keywords == null) {
+            return;
+        }
+        for (String keyword : keywords) {
+            slotsByKeyword.computeIfAbsent(keyword.toLowerCase(), k -> new ArrayList<>()).add(slot);
+        }
+    }
+}
@@ -5,12 +5,14 @@ import com.example.chatml.model.AzureChatCompletion;
 import com.example.chatml.model.ChatRequest;
 import com.example.chatml.model.ChatResponse;
 import com.example.chatml.model.ChatMessage;
+import com.example.chatml.model.Embedding;
+import com.example.chatml.model.RetrievedChunk;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.function.Consumer;
 
 @Service
 @RequiredArgsConstructor
@@ -19,206 +21,11 @@ public class RagChatService {
     // Token limit for a single "demo" conversation
     private static final int CONVERSATION_TOKEN_LIMIT = 3000;
 
-    private final AzureEmbeddingClient embeddingClient;
-    private final ChromaClient chromaClient;
-    private final AzureChatClient chatClient;
-
-    /**
-     * UPDATED: Accepts a ChatRequest and returns a ChatResponse
-     * (This includes history AND token count)
-     */
-    public ChatResponse answer(ChatRequest request) { // <-- UPDATED Signature
-        System.out.println("\n=== RAG Query Processing ===");
-
-        // 1. Get request data
-        List<ChatMessage> history = request.getHistory();
-        int totalTokensUsedSoFar = request.getTotalTokensUsedSoFar();
-        System.out.println("Tokens used so far: " + totalTokensUsedSoFar);
-
-        // 2. CHECK TOKEN LIMIT (PRE-FLIGHT)
-        if (totalTokensUsedSoFar >= CONVERSATION_TOKEN_LIMIT) {
-            System.out.println("TOKEN LIMIT REACHED. Blocking request.");
-            return new ChatResponse(
-                    "I'm sorry, this chat demo has reached its token limit. Please refresh to start a new conversation.",
-                    totalTokensUsedSoFar,
-                    true // limitReached = true
-            );
-        }
-
-        // 3. Get the most recent question
-        if (history == null || history.isEmpty()) {
-            return new ChatResponse("I'm sorry, I didn't receive a question.", totalTokensUsedSoFar, false);
-        }
-        ChatMessage lastUserMessage = history.get(history.size() - 1);
-        if (!"user".equalsIgnoreCase(lastUserMessage.getRole())) {
-            return new ChatResponse("I'm sorry, the last message was not from a user.", totalTokensUsedSoFar, false);
-        }
-        String question = lastUserMessage.getContent();
-        System.out.println("Current Question: " + question);
-
-        // 4. Get embedding for the *context-aware* query
-        String textToEmbed = buildEmbeddingQuery(history);
-        System.out.println("Text to Embed: \n" + textToEmbed);
-        List<Double> queryEmbedding = embeddingClient.getEmbedding(textToEmbed);
-
-        // 5. Detect if this is a temporal query (using the raw question)
-        boolean isTemporalQuery = isTemporalQuery(question);
-        System.out.println("Temporal query detected: " + isTemporalQuery);
-
-        // 6. Determine category filter based on question content
-        Map<String, Object> filter = null;
-        String lowerQuestion = question.toLowerCase();
-
-        // Check for specific company names (for deep-dive questions)
-        if (lowerQuestion.contains("the hive") || lowerQuestion.contains("hive")) {
-            filter = Map.of("company", "The Hive");
-            System.out.println("Filter: The Hive company");
-        }
-        else if (lowerQuestion.contains("mondiale") || lowerQuestion.contains("etudes")) {
-            filter = Map.of("company", "Mondiale des Etudes & Réalisations Industrielles");
-            System.out.println("Filter: Mondiale company");
-        }
-        else if (lowerQuestion.contains("new technologies") || lowerQuestion.contains("pfe")) {
-            filter = Map.of("company", "New Technologies");
-            System.out.println("Filter: New Technologies company");
-        }
-        else if (lowerQuestion.contains("bank of tunis") || lowerQuestion.contains("bank")) {
-            filter = Map.of("company", "Bank of Tunis");
-            System.out.println("Filter: Bank of Tunis company");
-        }
-        // Check for specific project names
-        else if (lowerQuestion.contains("careforelders") || lowerQuestion.contains("care for elders") || 
-                 lowerQuestion.contains("elderly care")) {
-            filter = Map.of("title", "CareForElders – AI-Powered Elderly Care Platform");
-            System.out.println("Filter: CareForElders project");
-        }
-        else if (lowerQuestion.contains("fullcare") || lowerQuestion.contains("blockchain") ||
-                 lowerQuestion.contains("hedera")) {
-            filter = Map.of("title", "FullCare_App – Blockchain Healthcare Document Management");
-            System.out.println("Filter: FullCare_App project");
-        }
-        else if (lowerQuestion.contains("ecommerce") || lowerQuestion.contains("multipurpose")) {
-            filter = Map.of("title", "MultiPurpose_Ecommerce – Customizable B2B/B2C Platform");
-            System.out.println("Filter: MultiPurpose_Ecommerce project");
-        }
-        // Prioritize "Project" if mentioned generally
-        else if (lowerQuestion.contains("project")) {
-            filter = Map.of("category", "Project");
-            System.out.println("Filter: Project only");
-        }
-        // If "project" isn't mentioned, check for "experience"
-        else if (lowerQuestion.contains("experience") || lowerQuestion.contains("work") ||
-                lowerQuestion.contains("job") || lowerQuestion.contains("professional")) {
-            filter = Map.of("category", "Experience");
-            System.out.println("Filter: Experience only");
-        }
-        // Check for "education"
-        else if (lowerQuestion.contains("education") || lowerQuestion.contains("study") ||
-                lowerQuestion.contains("degree") || lowerQuestion.contains("university")) {
-            filter = Map.of("category", "Education");
-            System.out.println("Filter: Education only");
-        }
-        // Check for learning/challenge questions
-        else if (lowerQuestion.contains("learn") || lowerQuestion.contains("challenge") ||
-                 lowerQuestion.contains("difficult") || lowerQuestion.contains("overcome")) {
-            filter = Map.of("category", "Technical");
-            System.out.println("Filter: Technical/Learning experiences");
-        }
-        // Check for behavioral/STAR questions
-        else if (lowerQuestion.contains("tell me about a time") || lowerQuestion.contains("give me an example") ||
-                 lowerQuestion.contains("describe a situation") || lowerQuestion.contains("star")) {
-            filter = Map.of("category", "Behavioral");
-            System.out.println("Filter: Behavioral/STAR examples");
-        }
-        // Check for architecture/system design questions
-        else if (lowerQuestion.contains("architecture") || lowerQuestion.contains("system design") ||
-                 lowerQuestion.contains("scalability") || lowerQuestion.contains("design a system")) {
-            // Search in Technical category for architecture content
-            System.out.println("Architecture/Design query detected - searching Technical category");
-        }
-        // Check for DevOps/CI-CD questions
-        else if (lowerQuestion.contains("devops") || lowerQuestion.contains("ci/cd") ||
-                 lowerQuestion.contains("docker") || lowerQuestion.contains("kubernetes") ||
-                 lowerQuestion.contains("deployment")) {
-            // Search in Technical category for DevOps content
-            System.out.println("DevOps/Deployment query detected - searching Technical category");
-        }
-
-        // 7. Retrieve documents with metadata
-        int retrievalCount = 5;
-        if (lowerQuestion.contains("all") || lowerQuestion.contains("list") ||
-                lowerQuestion.contains("what are")) {
-            retrievalCount = 10;
-            System.out.println("Comprehensive query detected - retrieving more results");
-        }
-        // Increase retrieval for experience queries to get all job entries
-        if (lowerQuestion.contains("experience") || lowerQuestion.contains("work history") ||
-                lowerQuestion.contains("jobs") || lowerQuestion.contains("career")) {
-            retrievalCount = 8;
-            System.out.println("Experience query detected - retrieving more results");
-        }
-
-        List<Map<String, Object>> results = chromaClient.querySimilar(queryEmbedding, retrievalCount, filter);
-        System.out.println("Results found: " + results.size());
-
-        if (results.isEmpty()) {
-            System.out.println("No results - trying without filter...");
-            results = chromaClient.querySimilar(queryEmbedding, 5, null);
-        }
+    // Result count for the unfiltered fallback query
+    private static final int FALLBACK_RETRIEVAL_COUNT = 5;
 
-        if (results.isEmpty()) {
-            return new ChatResponse("I don't have enough information to answer that question based on my portfolio data.", totalTokensUsedSoFar, false);
-        }
-
-        // 8. Sort by rank and year if temporal query
-        if (isTemporalQuery) {
-            results = sortByRelevance(results);
-            System.out.println("Results sorted by recency/rank");
-        }
-
-        // 9. Build context from top results
-        StringBuilder contextBuilder = new StringBuilder();
-        int limit = (lowerQuestion.contains("all") || lowerQuestion.contains("list") ||
-                lowerQuestion.contains("what are")) ?
-                Math.min(8, results.size()) : Math.min(3, results.size());
-
-        // Increase context limit for experience queries to include all jobs
-        if (lowerQuestion.contains("experience") || lowerQuestion.contains("work history") ||
-                lowerQuestion.contains("jobs") || lowerQuestion.contains("career")) {
-            limit = Math.min(6, results.size());
-        }
-
-        System.out.println("Including " + limit + " results in context");
-
-        for (int i = 0; i < limit; i++) {
-            Map<String, Object> result = results.get(i);
-            String doc = (String) result.get("document");
-            Map<String, Object> metadata = (Map<String, Object>) result.get("metadata");
-
-            contextBuilder.append("=== SOURCE ").append(i + 1).append(" ===\n");
-            contextBuilder.append(doc);
-            if (metadata != null && metadata.containsKey("year")) {
-                contextBuilder.append("\n[Year: ").append(metadata.get("year")).append("]");
-            }
-            if (metadata != null && metadata.containsKey("rank")) {
-                contextBuilder.append(" [Priority: ").append(metadata.get("rank")).append("]");
-            }
-            contextBuilder.append("\n\n");
-        }
-
-        String context = contextBuilder.toString();
-        if (context.length() > 4000) {
-            context = context.substring(0, 4000) + "\n[Content truncated...]";
-        }
-
-        System.out.println("Context built successfully (" + context.length() + " chars)");
-        System.out.println("=== End RAG Processing ===\n");
-
-        // 10. Build the FINAL MESSAGE LIST for the LLM
-
-        // 10a. Define the System Prompt.
-        // ========== THIS IS THE MODIFIED SECTION ==========
-        String systemPrompt = """
+    // Constant, so AzureChatClient can reuse its serialized request template for every turn
+    private static final String SYSTEM_PROMPT = """
         You are Mohamed Salah Mechergui, a 28-year-old software engineer from Tunis, Tunisia.
         Answer all questions as yourself, using the first person ("I", "my", "am").
         Be professional, conversational, and authentic—like you're talking to a recruiter or tech lead.
@@ -295,16 +102,273 @@ public class RagChatService {
         - Saying "based on my portfolio data" repeatedly (they know you're a bot)
         - Long, unfocused answers—get to the point
         """;
-        // ========== END OF MODIFIED SECTION ==========
 
+    private final AzureEmbeddingClient embeddingClient;
+    private final VectorStore vectorStore;
+    private final AzureChatClient chatClient;
+    private final AnswerCache answerCache;
+    private final QueryRouter queryRouter;
+    private final ContextPacker contextPacker;
+    private final ConversationSummarizer conversationSummarizer;
+    private final ConversationStore conversationStore;
+    private final Bm25Index bm25Index;
+    // Identical first-turn questions asked concurrently share one chat completion
+    private final SingleFlight<String, AzureChatCompletion> firstTurnCompletions = new SingleFlight<>();
+
+    @Value("${rag.retrieval.speculative:true}")
+    private boolean speculativeRetrieval;
+
+    @Value("${rag.retrieval.budget-ms:2000}")
+    private long retrievalBudgetMs;
+
+    @Value("${rag.retrieval.hybrid:true}")
+    private boolean hybridRetrieval;
+
+    @Value("${rag.retrieval.rrf-k:60}")
+    private int rrfK;
+
+    // Part of each request deadline that retrieval leaves for the chat completion
+    @Value("${rag.deadline.completion-reserve-ms:10000}")
+    private long completionReserveMs;
+
+    /**
+     * Vector results and whether the metadata filter (if any) was applied or dropped by the fallback.
+     */
+    private record Retrieval(List<RetrievedChunk> results, boolean filtered) {
+    }
+
+    /**
+     * Outcome of retrieval and prompt assembly for one turn. Either {@code immediate} is set
+     * (the turn is answered without a chat completion) or {@code messages} is the prompt for Azure.
+     */
+    private record PreparedTurn(ChatResponse immediate, List<ChatMessage> messages, List<ChatMessage> history,
+                                Embedding queryEmbedding, boolean firstTurn, int totalTokensUsedSoFar) {
+        static PreparedTurn immediate(ChatResponse response) {
+            return new PreparedTurn(response, null, null, null, false, response.getTotalTokensUsed());
+        }
+    }
+
+    /**
+     * UPDATED: Accepts a ChatRequest and returns a ChatResponse
+     * (This includes history AND token count)
+     * Every downstream call gets what is left of {@code deadline}; when it runs out the response is partial.
+     */
+    public ChatResponse answer(ChatRequest request, Deadline deadline) { // <-- UPDATED Signature
+        ConversationStore.Conversation conversation = openConversation(request);
+        PreparedTurn turn = prepare(request, conversation, deadline);
+        if (turn.immediate() != null) {
+            return record(conversation, turn, turn.immediate());
+        }
+
+        // 11. Send to Azure Chat and GET TOKEN COUNT
+        AzureChatCompletion completion;
+        try (Deadline.Scope scope = deadline.activate()) {
+            completion = turn.firstTurn()
+                    ? firstTurnCompletions.execute(normalizeQuestion(turn.history()),
+                            () -> chatClient.chatWithMessages(turn.messages()))
+                    : chatClient.chatWithMessages(turn.messages());
+        } catch (RuntimeException e) {
+            if (!deadline.explains(e)) {
+                throw e;
+            }
+            PreparedTurn late = timedOut(turn.totalTokensUsedSoFar(), "chat completion");
+            return record(conversation, late, late.immediate());
+        }
+        return record(conversation, turn, complete(turn, completion));
+    }
+
+    /**
+     * Same pipeline as {@link #answer}, but the completion is streamed: every content delta is passed
+     * to {@code onToken} as soon as Azure sends it. The returned response carries the final token count.
+     * A stream cut off by the deadline ends with what was already sent, marked partial.
+     */
+    public ChatResponse answerStream(ChatRequest request, Deadline deadline, Consumer<String> onToken) {
+        ConversationStore.Conversation conversation = openConversation(request);
+        PreparedTurn turn = prepare(request, conversation, deadline);
+        if (turn.immediate() != null) {
+            onToken.accept(turn.immediate().getAnswer());
+            return record(conversation, turn, turn.immediate());
+        }
+
+        // 11. Stream from Azure Chat, forwarding tokens as they arrive
+        AzureChatCompletion completion;
+        try (Deadline.Scope scope = deadline.activate()) {
+            completion = chatClient.streamChatWithMessages(turn.messages(), onToken);
+        } catch (RuntimeException e) {
+            if (!deadline.explains(e)) {
+                throw e;
+            }
+            PreparedTurn late = timedOut(turn.totalTokensUsedSoFar(), "chat completion");
+            onToken.accept(late.immediate().getAnswer());
+            return record(conversation, late, late.immediate());
+        }
+        return record(conversation, turn, complete(turn, completion));
+    }
+
+    public SingleFlight<String, AzureChatCompletion> getFirstTurnSingleFlight() {
+        return firstTurnCompletions;
+    }
+
+    /**
+     * Coalescing key for a first turn: the question trimmed, with runs of whitespace collapsed to one
+     * space and lower-cased (Locale.ROOT), so questions differing only in case or spacing share one completion.
+     */
+    private static String normalizeQuestion(List<ChatMessage> history) {
+        String question = history.get(history.size() - 1).getContent();
+        return question.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * The server-side conversation for requests that send only the new message, or null for the
+     * full-history request shape.
+     */
+    private ConversationStore.Conversation openConversation(ChatRequest request) {
+        return request.getMessage() != null ? conversationStore.open(request.getConversationId()) : null;
+    }
+
+    /**
+     * Appends the exchange to the server-side conversation (if any) and charges its tokens there.
+     * Turns rejected before retrieval are not recorded.
+     */
+    private ChatResponse record(ConversationStore.Conversation conversation, PreparedTurn turn, ChatResponse response) {
+        if (conversation == null) {
+            return response;
+        }
+        if (turn.history() != null) {
+            ChatMessage question = turn.history().get(turn.history().size() - 1);
+            int tokensThisTurn = response.getTotalTokensUsed() - turn.totalTokensUsedSoFar();
+            response.setTotalTokensUsed(conversation.record(question, response.getAnswer(), tokensThisTurn));
+        }
+        response.setConversationId(conversation.getId());
+        return response;
+    }
+
+    /**
+     * Steps 1-10 within the retrieval part of the deadline, which ends {@code completion-reserve-ms}
+     * before the request deadline so the chat completion still has time to run.
+     */
+    private PreparedTurn prepare(ChatRequest request, ConversationStore.Conversation conversation, Deadline deadline) {
+        Deadline retrievalDeadline = deadline.minus(completionReserveMs);
+        try (Deadline.Scope scope = retrievalDeadline.activate()) {
+            return prepare(request, conversation);
+        } catch (RuntimeException e) {
+            if (!retrievalDeadline.explains(e)) {
+                throw e;
+            }
+            return timedOut(tokensUsedSoFar(request, conversation), "retrieval");
+        }
+    }
+
+    /**
+     * Steps 1-10: token pre-flight, retrieval and prompt assembly.
+     */
+    private PreparedTurn prepare(ChatRequest request, ConversationStore.Conversation conversation) {
+        System.out.println("\n=== RAG Query Processing ===");
+
+        // 1. Get request data: from the server-side conversation, or as sent by the client
+        List<ChatMessage> history = conversation != null
+                ? conversation.historyWith(new ChatMessage("user", request.getMessage()))
+                : request.getHistory();
+        int totalTokensUsedSoFar = tokensUsedSoFar(request, conversation);
+        System.out.println("Tokens used so far: " + totalTokensUsedSoFar);
+
+        // 2. CHECK TOKEN LIMIT (PRE-FLIGHT)
+        if (totalTokensUsedSoFar >= CONVERSATION_TOKEN_LIMIT) {
+            System.out.println("TOKEN LIMIT REACHED. Blocking request.");
+            return PreparedTurn.immediate(new ChatResponse(
+                    "I'm sorry, this chat demo has reached its token limit. Please refresh to start a new conversation.",
+                    totalTokensUsedSoFar,
+                    true // limitReached = true
+            ));
+        }
+
+        // 3. Get the most recent question
+        if (history == null || history.isEmpty()) {
+            return PreparedTurn.immediate(new ChatResponse("I'm sorry, I didn't receive a question.", totalTokensUsedSoFar, false));
+        }
+        ChatMessage lastUserMessage = history.get(history.size() - 1);
+        if (!"user".equalsIgnoreCase(lastUserMessage.getRole())) {
+            return PreparedTurn.immediate(new ChatResponse("I'm sorry, the last message was not from a user.", totalTokensUsedSoFar, false));
+        }
+        String question = lastUserMessage.getContent();
+        System.out.println("Current Question: " + question);
+
+        // 4. Get embedding for the *context-aware* query
+        String textToEmbed = buildEmbeddingQuery(history);
+        System.out.println("Text to Embed: \n" + textToEmbed);
+        Embedding queryEmbedding = embeddingClient.getEmbedding(textToEmbed);
+
+        // 4b. First-turn questions can be answered from the semantic answer cache
+        boolean firstTurn = history.size() == 1;
+        if (firstTurn) {
+            ChatResponse cached = answerCache.lookup(queryEmbedding);
+            if (cached != null) {
+                // Served without calling Azure chat, so no tokens are charged for this turn
+                return new PreparedTurn(new ChatResponse(cached.getAnswer(), totalTokensUsedSoFar, false),
+                        null, history, queryEmbedding, true, totalTokensUsedSoFar);
+            }
+        }
+
+        // 5. Classify the question in one pass: metadata filter, retrieval size and temporal intent
+        QueryRouter.Route route = queryRouter.route(question);
+        boolean isTemporalQuery = route.temporal();
+        System.out.println("Temporal query detected: " + isTemporalQuery);
+
+        // 6. Category/company/project filter chosen by the routing rules
+        Map<String, Object> filter = route.filter();
+        if (route.filterName() != null) {
+            System.out.println("Filter: " + route.filterName());
+        }
 
-        // 10b. Create the new list of messages to send to Azure
+        // 7. Retrieve documents with metadata
+        int retrievalCount = route.retrievalCount();
+        System.out.println("Retrieving " + retrievalCount + " results");
+
+        Retrieval retrieval = retrieve(queryEmbedding, retrievalCount, filter);
+        List<RetrievedChunk> results = retrieval.results();
+        System.out.println("Results found: " + results.size());
+
+        // 7b. Fuse with BM25 keyword matches, so exact technology names find their sources
+        if (hybridRetrieval) {
+            // Same filter and result count as the vector side, including its unfiltered fallback
+            int lexicalCount = filter == null || retrieval.filtered() ? retrievalCount : FALLBACK_RETRIEVAL_COUNT;
+            List<RetrievedChunk> lexical =
+                    bm25Index.search(question, lexicalCount, retrieval.filtered() ? filter : null);
+            results = fuse(List.of(results, lexical), lexicalCount, rrfK);
+            System.out.println("Hybrid results: " + results.size() + " (" + lexical.size() + " keyword matches)");
+        }
+
+        if (results.isEmpty()) {
+            Deadline deadline = Deadline.current();
+            if (deadline != null) {
+                // Nothing found because the searches ran out of time, not because nothing matches
+                deadline.check("retrieval");
+            }
+            return PreparedTurn.immediate(new ChatResponse("I don't have enough information to answer that question based on my portfolio data.", totalTokensUsedSoFar, false));
+        }
+
+        // 8. Sort by rank and year if temporal query
+        if (isTemporalQuery) {
+            results = sortByRelevance(results);
+            System.out.println("Results sorted by recency/rank");
+        }
+
+        // 9. Pack the top results into the context token budget
+        String context = contextPacker.pack(results, route.contextLimit());
+
+        System.out.println("Context built successfully (" + context.length() + " chars)");
+        System.out.println("=== End RAG Processing ===\n");
+
+        // 10. Build the FINAL MESSAGE LIST for the LLM
+
+        // 10a/10b. Create the new list of messages to send to Azure, starting with the system prompt
         List<ChatMessage> messagesForAzure = new ArrayList<>();
-        messagesForAzure.add(new ChatMessage("system", systemPrompt));
+        messagesForAzure.add(new ChatMessage("system", SYSTEM_PROMPT));
 
-        // 10c. Add all *previous* history (everything *except* the last user message)
+        // 10c. Add the *previous* history (everything *except* the last user message),
+        //      with older turns replaced by their rolling summary
         if (history.size() > 1) {
-            messagesForAzure.addAll(history.subList(0, history.size() - 1));
+            messagesForAzure.addAll(conversationSummarizer.compact(history.subList(0, history.size() - 1)));
         }
 
         // 10d. Create the new, context-injected user message
@@ -317,10 +381,30 @@ public class RagChatService {
 
         messagesForAzure.add(new ChatMessage("user", userPromptWithContext));
 
-        // 11. Send to Azure Chat and GET TOKEN COUNT
-        //    (This replaces the old `return chatClient.chatWithMessages(...)` call)
-        AzureChatCompletion completion = chatClient.chatWithMessages(messagesForAzure);
+        return new PreparedTurn(null, messagesForAzure, history, queryEmbedding, firstTurn, totalTokensUsedSoFar);
+    }
+
+    private static int tokensUsedSoFar(ChatRequest request, ConversationStore.Conversation conversation) {
+        return conversation != null ? conversation.getTokensUsed() : request.getTotalTokensUsedSoFar();
+    }
 
+    /**
+     * Graceful answer for a request whose deadline ran out before there was anything to say.
+     * No tokens are charged and the turn is not added to the conversation.
+     */
+    private static PreparedTurn timedOut(int totalTokensUsedSoFar, String stage) {
+        System.out.println("Request deadline reached during " + stage + " - returning a partial response");
+        ChatResponse response = new ChatResponse(
+                "I'm sorry, that took longer than expected. Please try asking again.", totalTokensUsedSoFar, false);
+        response.setPartial(true);
+        return PreparedTurn.immediate(response);
+    }
+
+    /**
+     * Steps 12-13: token accounting and caching once the completion is available.
+     */
+    private ChatResponse complete(PreparedTurn turn, AzureChatCompletion completion) {
+        int totalTokensUsedSoFar = turn.totalTokensUsedSoFar();
         String answer = completion.getContent();
         int tokensThisTurn = completion.getTotalTokens();
         System.out.println("Tokens THIS turn: " + tokensThisTurn);
@@ -335,87 +419,106 @@ public class RagChatService {
         }
 
         // 13. Return the full response object
-        return new ChatResponse(answer, newTotalTokens, limitReached);
-    }
+        ChatResponse response = new ChatResponse(answer, newTotalTokens, limitReached);
+        response.setPartial(completion.isTruncated());
+        if (turn.firstTurn() && !completion.isTruncated()) {
+            answerCache.put(turn.queryEmbedding(), response);
+        }
 
-    //
-    // --- ALL HELPER METHODS BELOW ARE UNCHANGED ---
-    //
+        // 14. Summarize older turns in the background so the next request can send a shorter history
+        List<ChatMessage> nextHistory = new ArrayList<>(turn.history());
+        nextHistory.add(new ChatMessage("assistant", answer));
+        conversationSummarizer.summarizeAsync(nextHistory);
+        return response;
+    }
 
     /**
-     * Check if query asks for temporal information (last, recent, current, etc.)
+     * Filtered query with an unfiltered fallback for when the filter matches nothing.
+     * In speculative mode both queries go to the vector store as one batch, which Chroma sends side by side,
+     * within the retrieval budget: the filtered result is used if it is non-empty, otherwise the unfiltered one.
+     * Otherwise the unfiltered query is only sent when the filtered one found nothing.
      */
-    private boolean isTemporalQuery(String query) {
-        String lower = query.toLowerCase();
-        return lower.contains("last") ||
-                lower.contains("recent") ||
-                lower.contains("latest") ||
-                lower.contains("current") ||
-                lower.contains("newest") ||
-                lower.contains("most recent");
+    private Retrieval retrieve(Embedding embedding, int retrievalCount, Map<String, Object> filter) {
+        if (filter == null) {
+            return new Retrieval(vectorStore.querySimilar(embedding, retrievalCount, null), false);
+        }
+        if (!speculativeRetrieval) {
+            return retrieveInTurn(embedding, retrievalCount, filter);
+        }
+
+        // The retrieval budget, or less if the request deadline is closer
+        Deadline requestDeadline = Deadline.current();
+        Deadline deadline = requestDeadline != null
+                ? requestDeadline.atMost(retrievalBudgetMs) : Deadline.after(retrievalBudgetMs);
+        List<List<RetrievedChunk>> results;
+        try (Deadline.Scope scope = deadline.activate()) {
+            results = vectorStore.querySimilarBatch(List.of(
+                    new VectorStore.Query(embedding, retrievalCount, filter),
+                    new VectorStore.Query(embedding, FALLBACK_RETRIEVAL_COUNT, null)));
+        }
+        if (!results.get(0).isEmpty()) {
+            return new Retrieval(results.get(0), true);
+        }
+        System.out.println("No filtered results - using unfiltered query");
+        return new Retrieval(results.get(1), false);
     }
 
-    /**
-     * Sort results by rank (ascending) and year (descending)
-     */
-    private List<Map<String, Object>> sortByRelevance(List<Map<String, Object>> results) {
-        results.sort((r1, r2) -> {
-            Integer rank1 = extractRank(r1);
-            Integer rank2 = extractRank(r2);
-            if (rank1 != null && rank2 != null && !rank1.equals(rank2)) {
-                return rank1.compareTo(rank2);
-            }
-            Integer year1 = extractYear(r1);
-            Integer year2 = extractYear(r2);
-            if (year1 == null && year2 == null) return 0;
-            if (year1 == null) return 1;
-            if (year2 == null) return -1;
-            return year2.compareTo(year1);
-        });
-        return results;
+    private Retrieval retrieveInTurn(Embedding embedding, int retrievalCount, Map<String, Object> filter) {
+        List<RetrievedChunk> results = vectorStore.querySimilar(embedding, retrievalCount, filter);
+        if (!results.isEmpty()) {
+            return new Retrieval(results, true);
+        }
+        System.out.println("No results - trying without filter...");
+        return new Retrieval(vectorStore.querySimilar(embedding, FALLBACK_RETRIEVAL_COUNT, null), false);
     }
 
     /**
-     * Extract rank from metadata
+     * Reciprocal rank fusion: each list adds 1 / (k + rank) for every result it contains, so documents
+     * ranked well by several searches (vector and keyword) come first; ties keep the order in
+     * which results were first seen. Keeps at most {@code limit}.
      */
-    private Integer extractRank(Map<String, Object> result) {
-        Map<String, Object> metadata = (Map<String, Object>) result.get("metadata");
-        if (metadata != null && metadata.containsKey("rank")) {
-            try {
-                Object rank = metadata.get("rank");
-                if (rank instanceof Integer) return (Integer) rank;
-                if (rank instanceof String) return Integer.parseInt((String) rank);
-            } catch (NumberFormatException ignored) {}
+    static List<RetrievedChunk> fuse(List<List<RetrievedChunk>> rankings, int limit, int k) {
+        List<List<RetrievedChunk>> nonEmpty = rankings.stream().filter(r -> !r.isEmpty()).toList();
+        if (nonEmpty.size() <= 1) {
+            return nonEmpty.isEmpty() ? List.of() : nonEmpty.get(0);
+        }
+        Map<String, RetrievedChunk> byKey = new LinkedHashMap<>();
+        Map<String, Double> scores = new HashMap<>();
+        for (List<RetrievedChunk> ranking : nonEmpty) {
+            for (int rank = 0; rank < ranking.size(); rank++) {
+                RetrievedChunk chunk = ranking.get(rank);
+                String key = chunk.id() != null ? chunk.id() : chunk.document();
+                byKey.putIfAbsent(key, chunk);
+                scores.merge(key, 1.0 / (k + rank + 1), Double::sum);
+            }
         }
-        return null;
+        return byKey.keySet().stream()
+                .sorted(Comparator.comparingDouble((String key) -> scores.get(key)).reversed())
+                .limit(limit)
+                .map(byKey::get)
+                .toList();
     }
 
+    //
+    // --- ALL HELPER METHODS BELOW ARE UNCHANGED ---
+    //
+
     /**
-     * Extract year from metadata
+     * Sort results by rank (ascending) and year (descending).
+     * Rank and year were parsed when the chunks were decoded, so the comparator only compares ints.
      */
-    private Integer extractYear(Map<String, Object> result) {
-        Map<String, Object> metadata = (Map<String, Object>) result.get("metadata");
-        if (metadata != null) {
-            if (metadata.containsKey("start_year")) {
-                try {
-                    Object startYear = metadata.get("start_year");
-                    return Integer.parseInt(startYear.toString());
-                } catch (NumberFormatException ignored) {}
+    private List<RetrievedChunk> sortByRelevance(List<RetrievedChunk> results) {
+        List<RetrievedChunk> sorted = new ArrayList<>(results);
+        sorted.sort((r1, r2) -> {
+            if (r1.hasRank() && r2.hasRank() && r1.rank() != r2.rank()) {
+                return Integer.compare(r1.rank(), r2.rank());
             }
-            if (metadata.containsKey("year")) {
-                String yearStr = metadata.get("year").toString();
-                if (yearStr.toLowerCase().contains("present")) {
-                    // Use Calendar to get the current year dynamically
-                    return Calendar.getInstance().get(Calendar.YEAR);
-                }
-                Pattern pattern = Pattern.compile("(\\d{4})");
-                Matcher matcher = pattern.matcher(yearStr);
-                if (matcher.find()) {
-                    return Integer.parseInt(matcher.group(1));
-                }
-            }
-        }
-        return null;
+            if (!r1.hasYear() && !r2.hasYear()) return 0;
+            if (!r1.hasYear()) return 1;
+            if (!r2.hasYear()) return -1;
+            return Integer.compare(r2.year(), r1.year());
+        });
+        return sorted;
     }
 
     /**
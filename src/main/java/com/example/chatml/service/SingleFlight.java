@@ -0,0 +1,113 @@
+package com.example.chatml.service;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Request coalescing: while a call for a key is in flight, concurrent callers with the same key
+ * wait for its result instead of issuing their own. Nothing is cached once the call completes.
+ * A failure that only concerns the caller who made the call (its {@link Deadline} ran out or was
+ * cancelled, or its thread was interrupted) is not shared: the waiting callers make the call again.
+ */
+public final class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong executions = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Runs {@code call} unless an identical call is already running, in which case its result
+     * (or exception) is shared. A waiting caller gives up when its own {@link Deadline} expires.
+     */
+    public V execute(K key, Supplier<V> call) {
+        while (true) {
+            CompletableFuture<V> mine = new CompletableFuture<>();
+            CompletableFuture<V> leader = inFlight.putIfAbsent(key, mine);
+            if (leader == null) {
+                return lead(key, mine, call);
+            }
+            coalesced.incrementAndGet();
+            try {
+                return await(leader);
+            } catch (AbandonedCall e) {
+                // The leader gave up for reasons of its own; this caller still has time to try
+            }
+        }
+    }
+
+    private V lead(K key, CompletableFuture<V> mine, Supplier<V> call) {
+        executions.incrementAndGet();
+        V value;
+        try {
+            value = call.get();
+        } catch (RuntimeException | Error e) {
+            // Removed before completing, so a waiting caller that retries does not find this call again
+            inFlight.remove(key, mine);
+            mine.completeExceptionally(abandonedByCaller(e) ? new AbandonedCall(e) : e);
+            throw e;
+        }
+        inFlight.remove(key, mine);
+        mine.complete(value);
+        return value;
+    }
+
+    public long getExecutions() {
+        return executions.get();
+    }
+
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    public int getInFlight() {
+        return inFlight.size();
+    }
+
+    /**
+     * The call failed because of the calling thread's own deadline or cancellation, not the dependency.
+     */
+    private static boolean abandonedByCaller(Throwable e) {
+        if (e instanceof CancellationException || Thread.currentThread().isInterrupted()) {
+            return true;
+        }
+        Deadline deadline = Deadline.current();
+        return deadline != null && e instanceof RuntimeException runtime && deadline.explains(runtime);
+    }
+
+    /**
+     * Handed to waiting callers in place of a failure that only concerned the leader.
+     */
+    private static final class AbandonedCall extends RuntimeException {
+        AbandonedCall(Throwable cause) {
+            super("Coalesced call abandoned by its caller", cause, false, false);
+        }
+    }
+
+    private static <V> V await(CompletableFuture<V> future) {
+        Deadline deadline = Deadline.current();
+        try {
+            return deadline == null ? future.get() : future.get(deadline.remainingNanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            throw new DeadlineExceededException("coalesced request");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a coalesced request", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw new CompletionException(cause);
+        }
+    }
+}
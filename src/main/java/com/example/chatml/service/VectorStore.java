@@ -0,0 +1,84 @@
+package com.example.chatml.service;
+
+import com.example.chatml.model.Embedding;
+import com.example.chatml.model.RetrievedChunk;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Storage and similarity search for portfolio embeddings.
+ * The backend is selected with the {@code vector.store} property
+ * ({@code chroma} or {@code hnsw}).
+ */
+public interface VectorStore {
+
+    /**
+     * Inserts the document, or replaces it when the id is already stored.
+     */
+    void addOrUpdateEmbedding(String id, Embedding embedding, String documentText, Map<String, Object> metadata);
+
+    /**
+     * One document of a bulk upsert.
+     */
+    record Document(String id, Embedding embedding, String text, Map<String, Object> metadata) {
+    }
+
+    /**
+     * Inserts or replaces many documents and returns the ids that could not be stored; the rest are
+     * stored even when some fail. Backends that can write several documents per round trip override
+     * this; the default upserts them one by one.
+     */
+    default List<String> upsertAll(List<Document> documents) {
+        List<String> failedIds = new ArrayList<>();
+        for (Document document : documents) {
+            try {
+                addOrUpdateEmbedding(document.id(), document.embedding(), document.text(), document.metadata());
+            } catch (RuntimeException e) {
+                failedIds.add(document.id());
+            }
+        }
+        return failedIds;
+    }
+
+    /**
+     * Removes the documents with these ids; ids that are not stored are ignored.
+     */
+    void delete(Collection<String> ids);
+
+    /**
+     * Returns up to {@code topK} nearest documents matching the Chroma-style {@code where} filter.
+     */
+    List<RetrievedChunk> querySimilar(Embedding embedding, int topK, Map<String, Object> whereFilter);
+
+    /**
+     * One similarity query of a batch.
+     */
+    record Query(Embedding embedding, int topK, Map<String, Object> where) {
+    }
+
+    /**
+     * Runs several queries and returns their results in the same order. Backends that can answer
+     * multiple queries in one round trip override this; the default runs them one by one.
+     */
+    default List<List<RetrievedChunk>> querySimilarBatch(List<Query> queries) {
+        List<List<RetrievedChunk>> results = new ArrayList<>(queries.size());
+        for (Query query : queries) {
+            results.add(querySimilar(query.embedding(), query.topK(), query.where()));
+        }
+        return results;
+    }
+
+    /**
+     * Every stored document (without a distance), e.g. to build a local keyword index.
+     */
+    List<RetrievedChunk> getAllDocuments();
+
+    /**
+     * Called once a batch of writes is complete, so backends can persist their state.
+     */
+    default void flush() {
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.chatml.model;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class EmbeddingTest {
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    @Test
+    void decodesKnownLittleEndianBase64Vector() throws IOException {
+        // [1.0, -2.5, 0.15625] as little-endian IEEE 754 floats, as Azure sends with encoding_format=base64
+        Embedding embedding = Embedding.fromBytes(Base64.getDecoder().decode("AACAPwAAIMAAACA+"));
+
+        assertThat(embedding.values()).containsExactly(1.0f, -2.5f, 0.15625f);
+    }
+
+    @Test
+    void base64RoundTripIsExact() throws IOException {
+        float[] values = new float[1536];
+        Random random = new Random(42);
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (float) random.nextGaussian();
+        }
+        values[0] = Float.MIN_VALUE;
+        values[1] = -0.0f;
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(values);
+        String base64 = Base64.getEncoder().encodeToString(buffer.array());
+
+        Embedding embedding = Embedding.fromBytes(Base64.getDecoder().decode(base64));
+
+        assertThat(embedding).isEqualTo(new Embedding(values));
+        assertThat(Float.floatToRawIntBits(embedding.values()[1])).isEqualTo(Float.floatToRawIntBits(-0.0f));
+    }
+
+    @Test
+    void rejectsByteCountThatIsNotWholeFloats() {
+        assertThatThrownBy(() -> Embedding.fromBytes(new byte[] {0, 0, (byte) 0x80, 0x3F, 0}))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("5 bytes");
+    }
+
+    @Test
+    void base64AndJsonArrayDecodeToTheSameVector() throws IOException {
+        Embedding fromBase64 = Embedding.fromBytes(Base64.getDecoder().decode("AACAPwAAIMAAACA+"));
+
+        StringWriter json = new StringWriter();
+        try (JsonGenerator generator = jsonFactory.createGenerator(json)) {
+            fromBase64.write(generator);
+        }
+        Embedding fromJson;
+        try (JsonParser parser = jsonFactory.createParser(json.toString())) {
+            parser.nextToken();
+            fromJson = Embedding.read(parser);
+        }
+
+        assertThat(json.toString()).isEqualTo("[1.0,-2.5,0.15625]");
+        assertThat(fromJson).isEqualTo(fromBase64);
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.chatml.service;
+
+import com.example.chatml.model.Embedding;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.jsonPath;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+class AzureEmbeddingClientTest {
+
+    private static final String EMBEDDINGS_URL = "http://azure/openai/deployments/emb/embeddings?api-version=v1";
+
+    private MockRestServiceServer server;
+    private EmbeddingCache cache;
+    private AzureEmbeddingClient client;
+
+    @BeforeEach
+    void setUp() {
+        RestTemplate restTemplate = new RestTemplate();
+        server = MockRestServiceServer.bindTo(restTemplate).build();
+
+        DownstreamGuards guards = new DownstreamGuards();
+        ReflectionTestUtils.setField(guards, "chatMaxConcurrent", 4);
+        ReflectionTestUtils.setField(guards, "embeddingMaxConcurrent", 4);
+        ReflectionTestUtils.setField(guards, "chromaMaxConcurrent", 4);
+        ReflectionTestUtils.setField(guards, "chromaMaxWaitMs", 200L);
+        ReflectionTestUtils.setField(guards, "failureThreshold", 5);
+        ReflectionTestUtils.setField(guards, "openMs", 30000L);
+        guards.init();
+
+        cache = new EmbeddingCache();
+        ReflectionTestUtils.setField(cache, "maxEntries", 100);
+
+        client = new AzureEmbeddingClient(restTemplate, cache, guards);
+        ReflectionTestUtils.setField(client, "baseUrl", "http://azure");
+        ReflectionTestUtils.setField(client, "apiKey", "key");
+        ReflectionTestUtils.setField(client, "embeddingApiVersion", "v1");
+        ReflectionTestUtils.setField(client, "embeddingDeployment", "emb");
+        ReflectionTestUtils.setField(client, "embeddingEncoding", "float");
+        ReflectionTestUtils.setField(client, "embeddingBatchSize", 2);
+    }
+
+    @Test
+    void resultsFollowInputOrderAcrossBatchesAndRepeatedTextsAreSentOnce() {
+        cache.put(cache.key("gamma", "emb", 0), vector(3));
+        // Misses in first-seen order: alpha and beta, then delta alone, sent as a plain string
+        server.expect(requestTo(EMBEDDINGS_URL))
+                .andExpect(method(HttpMethod.POST))
+                .andExpect(jsonPath("$.input.length()").value(2))
+                .andExpect(jsonPath("$.input[0]").value("alpha"))
+                .andExpect(jsonPath("$.input[1]").value("beta"))
+                // Azure may list the items in any order; their index says which input they belong to
+                .andRespond(withSuccess("""
+                        {"data": [{"index": 1, "embedding": [2, 0]}, {"index": 0, "embedding": [1, 0]}]}
+                        """, MediaType.APPLICATION_JSON));
+        server.expect(requestTo(EMBEDDINGS_URL))
+                .andExpect(jsonPath("$.input").value("delta"))
+                .andRespond(withSuccess("""
+                        {"data": [{"index": 0, "embedding": [4, 0]}]}
+                        """, MediaType.APPLICATION_JSON));
+
+        List<Embedding> embeddings = client.getEmbeddings(List.of("alpha", "beta", "alpha", "gamma", " beta ", "delta"));
+
+        server.verify();
+        assertThat(embeddings).containsExactly(vector(1), vector(2), vector(1), vector(3), vector(2), vector(4));
+        assertThat(cache.get(cache.key("delta", "emb", 0))).isEqualTo(vector(4));
+    }
+
+    @Test
+    void fullyCachedBatchMakesNoRequest() {
+        cache.put(cache.key("alpha", "emb", 0), vector(1));
+        cache.put(cache.key("beta", "emb", 0), vector(2));
+
+        List<Embedding> embeddings = client.getEmbeddings(List.of("beta", "alpha"));
+
+        server.verify();
+        assertThat(embeddings).containsExactly(vector(2), vector(1));
+    }
+
+    private static Embedding vector(float value) {
+        return new Embedding(new float[]{value, 0});
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.chatml.service;
+
+import com.example.chatml.config.WorkerThreads;
+import com.example.chatml.model.RetrievedChunk;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class Bm25IndexTest {
+
+    private VectorStore vectorStore;
+    private Bm25Index index;
+
+    @BeforeEach
+    void setUp() {
+        vectorStore = mock(VectorStore.class);
+        index = newIndex(vectorStore);
+
+        index.addOrUpdate("kafka-pipeline", "Kafka streaming pipeline with Kafka Connect and Kafka Streams",
+                Map.of("category", "Project"));
+        index.addOrUpdate("kafka-consumer", "Built a Kafka consumer", Map.of("category", "Experience"));
+        index.addOrUpdate("rest-api", "Spring Boot REST API with PostgreSQL", Map.of("category", "Project"));
+        index.addOrUpdate("hedera", "Hedera blockchain document management", Map.of("category", "Project"));
+    }
+
+    @Test
+    void higherTermFrequencyRanksFirst() {
+        assertThat(ids(index.search("kafka", 10, null))).containsExactly("kafka-pipeline", "kafka-consumer");
+    }
+
+    @Test
+    void rarerTermOutweighsCommonOne() {
+        // "hedera" is in one document, "kafka" in two: the single hedera match beats both kafka matches
+        assertThat(ids(index.search("kafka hedera", 10, null)))
+                .containsExactly("hedera", "kafka-pipeline", "kafka-consumer");
+    }
+
+    @Test
+    void ignoresCaseStopWordsAndPunctuation() {
+        assertThat(ids(index.search("What is KAFKA?", 10, null))).containsExactly("kafka-pipeline", "kafka-consumer");
+        assertThat(index.search("what is the", 10, null)).isEmpty();
+    }
+
+    @Test
+    void appliesFilterAndTopK() {
+        assertThat(ids(index.search("kafka", 10, Map.of("category", "Experience")))).containsExactly("kafka-consumer");
+        assertThat(ids(index.search("kafka", 1, null))).containsExactly("kafka-pipeline");
+    }
+
+    @Test
+    void updatedAndRemovedDocumentsLeaveThePostings() {
+        index.addOrUpdate("kafka-pipeline", "Batch ETL with Airflow", Map.of("category", "Project"));
+        assertThat(ids(index.search("kafka", 10, null))).containsExactly("kafka-consumer");
+        assertThat(ids(index.search("airflow", 10, null))).containsExactly("kafka-pipeline");
+
+        index.remove("kafka-consumer");
+        assertThat(index.search("kafka", 10, null)).isEmpty();
+        assertThat(index.size()).isEqualTo(3);
+    }
+
+    @Test
+    void keepsLanguageNamesWithSymbols() {
+        index.addOrUpdate("languages", "Services in C++ and C#", Map.of());
+
+        assertThat(ids(index.search("c++", 10, null))).containsExactly("languages");
+        assertThat(ids(index.search("c#", 10, null))).containsExactly("languages");
+    }
+
+    @Test
+    void hydratesFromTheVectorStore() {
+        when(vectorStore.getAllDocuments()).thenReturn(List.of(
+                RetrievedChunk.of("sonar", "Quality gates in SonarQube", Map.of(), Double.NaN)));
+
+        assertThat(index.hydrate()).isTrue();
+        assertThat(ids(index.search("sonarqube", 10, null))).containsExactly("sonar");
+    }
+
+    @Test
+    void hydrationKeepsDocumentsChangedDuringTheFetch() {
+        // The snapshot was taken before an ingestion job updated "hedera" and removed "rest-api"
+        when(vectorStore.getAllDocuments()).thenAnswer(invocation -> {
+            index.addOrUpdate("hedera", "Hedera hashgraph token service", Map.of("category", "Project"));
+            index.remove("rest-api");
+            return List.of(
+                    RetrievedChunk.of("hedera", "Hedera blockchain document management", Map.of(), Double.NaN),
+                    RetrievedChunk.of("rest-api", "Spring Boot REST API with PostgreSQL", Map.of(), Double.NaN),
+                    RetrievedChunk.of("sonar", "Quality gates in SonarQube", Map.of(), Double.NaN));
+        });
+
+        assertThat(index.hydrate()).isTrue();
+        assertThat(ids(index.search("hashgraph", 10, null))).containsExactly("hedera");
+        assertThat(index.search("blockchain", 10, null)).isEmpty();
+        assertThat(index.search("postgresql", 10, null)).isEmpty();
+        assertThat(ids(index.search("sonarqube", 10, null))).containsExactly("sonar");
+    }
+
+    @Test
+    void failedHydrationLeavesIngestedDocuments() {
+        when(vectorStore.getAllDocuments()).thenThrow(new DownstreamUnavailableException("chroma circuit open"));
+
+        assertThat(index.hydrate()).isFalse();
+        assertThat(index.size()).isEqualTo(4);
+    }
+
+    private static Bm25Index newIndex(VectorStore store) {
+        Bm25Index index = new Bm25Index(store, new WorkerThreads(new MockEnvironment()));
+        ReflectionTestUtils.setField(index, "k1", 1.2);
+        ReflectionTestUtils.setField(index, "b", 0.75);
+        return index;
+    }
+
+    private static List<String> ids(List<RetrievedChunk> results) {
+        return results.stream().map(RetrievedChunk::id).toList();
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.chatml.service;
+
+import com.example.chatml.model.Embedding;
+import com.example.chatml.model.RetrievedChunk;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class BruteForceIndexTest {
+
+    private static final Embedding QUERY = new Embedding(new float[]{1, 0});
+
+    @Test
+    void defaultsToChromaSquaredL2Distances() {
+        BruteForceIndex index = indexWith(Map.of("near", new float[]{2, 0}, "far", new float[]{0, 3}));
+
+        List<RetrievedChunk> results = index.search(QUERY, 2, null);
+
+        assertThat(results).extracting(RetrievedChunk::id).containsExactly("near", "far");
+        assertThat(results.get(0).distance()).isCloseTo(1.0, within(1e-9));
+        assertThat(results.get(1).distance()).isCloseTo(10.0, within(1e-9));
+    }
+
+    @Test
+    void cosineSpaceIgnoresVectorLength() {
+        // Same direction as the query but far away: nearest by cosine, not by L2
+        BruteForceIndex index = indexWith(Map.of("long", new float[]{10, 0}, "tilted", new float[]{1, 1}));
+        index.setSpace(BruteForceIndex.Space.COSINE);
+
+        List<RetrievedChunk> results = index.search(QUERY, 2, null);
+
+        assertThat(results).extracting(RetrievedChunk::id).containsExactly("long", "tilted");
+        assertThat(results.get(0).distance()).isCloseTo(0.0, within(1e-9));
+        assertThat(results.get(1).distance()).isCloseTo(1 - Math.sqrt(0.5), within(1e-6));
+    }
+
+    @Test
+    void innerProductSpace() {
+        BruteForceIndex index = indexWith(Map.of("a", new float[]{0.5f, 0}, "b", new float[]{0.25f, 0}));
+        index.setSpace(BruteForceIndex.Space.IP);
+
+        List<RetrievedChunk> results = index.search(QUERY, 2, null);
+
+        assertThat(results).extracting(RetrievedChunk::id).containsExactly("a", "b");
+        assertThat(results.get(0).distance()).isCloseTo(0.5, within(1e-9));
+    }
+
+    @Test
+    void spaceIsReadFromCollectionMetadata() {
+        assertThat(BruteForceIndex.Space.of("cosine")).isEqualTo(BruteForceIndex.Space.COSINE);
+        assertThat(BruteForceIndex.Space.of("ip")).isEqualTo(BruteForceIndex.Space.IP);
+        assertThat(BruteForceIndex.Space.of("l2")).isEqualTo(BruteForceIndex.Space.L2);
+        assertThat(BruteForceIndex.Space.of(null)).isEqualTo(BruteForceIndex.Space.L2);
+    }
+
+    private static BruteForceIndex indexWith(Map<String, float[]> vectors) {
+        BruteForceIndex index = new BruteForceIndex();
+        vectors.forEach((id, vector) -> index.put(id, new Embedding(vector), RetrievedChunk.of(id, id, Map.of(), Double.NaN)));
+        return index;
+    }
+}
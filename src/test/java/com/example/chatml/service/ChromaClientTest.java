@@ -0,0 +1,225 @@
+package com.example.chatml.service;
+
+import com.example.chatml.config.WorkerThreads;
+import com.example.chatml.model.Embedding;
+import com.example.chatml.model.RetrievedChunk;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.test.web.client.ResponseActions;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.jsonPath;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withBadRequest;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withServerError;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+class ChromaClientTest {
+
+    private static final String QUERY_URL = "http://chroma/api/v1/collections/col-1/query";
+    private static final String UPSERT_URL = "http://chroma/api/v1/collections/col-1/upsert";
+    private static final Map<String, Object> PROJECTS = Map.of("category", "Project");
+
+    private MockRestServiceServer server;
+    private ChromaClient client;
+
+    @BeforeEach
+    void setUp() {
+        RestTemplate restTemplate = new RestTemplate();
+        server = MockRestServiceServer.bindTo(restTemplate).ignoreExpectOrder(true).build();
+
+        DownstreamGuards guards = new DownstreamGuards();
+        ReflectionTestUtils.setField(guards, "chatMaxConcurrent", 4);
+        ReflectionTestUtils.setField(guards, "embeddingMaxConcurrent", 4);
+        ReflectionTestUtils.setField(guards, "chromaMaxConcurrent", 4);
+        ReflectionTestUtils.setField(guards, "chromaMaxWaitMs", 200L);
+        ReflectionTestUtils.setField(guards, "failureThreshold", 5);
+        ReflectionTestUtils.setField(guards, "openMs", 30000L);
+        guards.init();
+
+        client = new ChromaClient(restTemplate, guards, new WorkerThreads(new MockEnvironment()));
+        ReflectionTestUtils.setField(client, "chromaUrl", "http://chroma");
+        ReflectionTestUtils.setField(client, "collectionId", "col-1");
+        ReflectionTestUtils.setField(client, "maxConcurrentQueries", 4);
+        client.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        client.shutdown();
+    }
+
+    @Test
+    void batchIsOneRequestPerFilterAndRowsGoBackToTheirQueries() {
+        server.expect(requestTo(QUERY_URL))
+                .andExpect(method(HttpMethod.POST))
+                .andExpect(jsonPath("$.where.category").value("Project"))
+                .andExpect(jsonPath("$.query_embeddings.length()").value(2))
+                .andExpect(jsonPath("$.n_results").value(3))
+                .andRespond(withSuccess(response(List.of("a1", "a2", "a3"), List.of("b1", "b2", "b3")),
+                        MediaType.APPLICATION_JSON));
+        server.expect(requestTo(QUERY_URL))
+                .andExpect(jsonPath("$.where").doesNotExist())
+                .andExpect(jsonPath("$.query_embeddings.length()").value(2))
+                .andExpect(jsonPath("$.n_results").value(5))
+                .andRespond(withSuccess(response(List.of("c1", "c2", "c3", "c4", "c5"), List.of("d1", "d2", "d3", "d4", "d5")),
+                        MediaType.APPLICATION_JSON));
+
+        // A null and an empty filter are the same group
+        List<List<RetrievedChunk>> results = client.querySimilarBatch(List.of(
+                new VectorStore.Query(embedding(1), 3, PROJECTS),
+                new VectorStore.Query(embedding(2), 5, null),
+                new VectorStore.Query(embedding(3), 2, PROJECTS),
+                new VectorStore.Query(embedding(4), 1, Map.of())));
+
+        server.verify();
+        assertThat(results).hasSize(4);
+        assertThat(ids(results.get(0))).containsExactly("a1", "a2", "a3");
+        assertThat(ids(results.get(1))).containsExactly("c1", "c2", "c3", "c4", "c5");
+        assertThat(ids(results.get(2))).containsExactly("b1", "b2");
+        assertThat(ids(results.get(3))).containsExactly("d1");
+        assertThat(results.get(0).get(0).document()).isEqualTo("text of a1");
+        assertThat(results.get(0).get(1).distance()).isEqualTo(0.2);
+    }
+
+    @Test
+    void failedGroupLeavesTheOtherGroupsResults() {
+        server.expect(requestTo(QUERY_URL))
+                .andExpect(jsonPath("$.where.category").value("Project"))
+                .andRespond(withServerError());
+        server.expect(requestTo(QUERY_URL))
+                .andExpect(jsonPath("$.where").doesNotExist())
+                .andRespond(withSuccess(response(List.of("c1", "c2")), MediaType.APPLICATION_JSON));
+
+        List<List<RetrievedChunk>> results = client.querySimilarBatch(List.of(
+                new VectorStore.Query(embedding(1), 3, PROJECTS),
+                new VectorStore.Query(embedding(1), 5, null)));
+
+        server.verify();
+        assertThat(results.get(0)).isEmpty();
+        assertThat(ids(results.get(1))).containsExactly("c1", "c2");
+    }
+
+    @Test
+    void localCopyLoadKeepsWritesMadeDuringTheFetch() {
+        ReflectionTestUtils.setField(client, "localFallbackEnabled", true);
+        server.expect(requestTo("http://chroma/api/v1/collections/col-1/get"))
+                .andExpect(jsonPath("$.include[2]").value("embeddings"))
+                .andRespond(request -> {
+                    // An ingestion job deletes "old" and rewrites "kafka" while the snapshot is in flight
+                    client.delete(List.of("old"));
+                    client.upsertAll(List.of(new VectorStore.Document("kafka", embedding(1), "Kafka Streams, new",
+                            Map.of("category", "Project"))));
+                    return withSuccess("""
+                            {"ids": ["kafka", "old", "hedera"],
+                             "documents": ["Kafka, stale", "Removed item", "Hedera"],
+                             "metadatas": [{"category": "Project"}, {"category": "Project"}, {"category": "Project"}],
+                             "embeddings": [[1, 0, 1], [1, 0, 1], [2, 0, 1]]}
+                            """, MediaType.APPLICATION_JSON).createResponse(request);
+                });
+        server.expect(requestTo("http://chroma/api/v1/collections/col-1/delete")).andRespond(withSuccess());
+        server.expect(requestTo("http://chroma/api/v1/collections/col-1/upsert")).andRespond(withSuccess());
+
+        assertThat(client.loadLocalCopy()).isTrue();
+        server.verify();
+
+        BruteForceIndex localCopy = (BruteForceIndex) ReflectionTestUtils.getField(client, "localCopy");
+        List<RetrievedChunk> all = localCopy.search(embedding(1), 10, null);
+        assertThat(ids(all)).containsExactly("kafka", "hedera");
+        assertThat(all.get(0).document()).isEqualTo("Kafka Streams, new");
+    }
+
+    @Test
+    void rejectedBatchIsRetriedOneByOneAndOnlyTheRejectedIdsAreReported() {
+        ReflectionTestUtils.setField(client, "upsertBatchSize", 3);
+        server.expect(requestTo(UPSERT_URL))
+                .andExpect(jsonPath("$.ids.length()").value(3))
+                .andRespond(withBadRequest());
+        expectSingleUpsert("a").andRespond(withSuccess());
+        expectSingleUpsert("b").andRespond(withBadRequest());
+        expectSingleUpsert("c").andRespond(withSuccess());
+        // The next batch is sent whole again
+        expectSingleUpsert("d").andRespond(withSuccess());
+
+        List<String> failedIds = client.upsertAll(List.of(document("a"), document("b"), document("c"), document("d")));
+
+        server.verify();
+        assertThat(failedIds).containsExactly("b");
+    }
+
+    @Test
+    void batchFailingForAnotherReasonReportsAllItsIds() {
+        ReflectionTestUtils.setField(client, "upsertBatchSize", 2);
+        server.expect(requestTo(UPSERT_URL))
+                .andExpect(jsonPath("$.ids[0]").value("a"))
+                .andRespond(withServerError());
+        server.expect(requestTo(UPSERT_URL))
+                .andExpect(jsonPath("$.ids[0]").value("c"))
+                .andRespond(withSuccess());
+
+        List<String> failedIds = client.upsertAll(List.of(document("a"), document("b"), document("c")));
+
+        server.verify();
+        assertThat(failedIds).containsExactly("a", "b");
+    }
+
+    private ResponseActions expectSingleUpsert(String id) {
+        return server.expect(requestTo(UPSERT_URL))
+                .andExpect(jsonPath("$.ids.length()").value(1))
+                .andExpect(jsonPath("$.ids[0]").value(id));
+    }
+
+    private static VectorStore.Document document(String id) {
+        return new VectorStore.Document(id, embedding(1), "text of " + id, PROJECTS);
+    }
+
+    private static Embedding embedding(float value) {
+        return new Embedding(new float[]{value, 0, 1});
+    }
+
+    /**
+     * A /query response with one row per query; distances count up from 0.1 within each row.
+     */
+    @SafeVarargs
+    private static String response(List<String>... rows) {
+        StringBuilder ids = new StringBuilder();
+        StringBuilder documents = new StringBuilder();
+        StringBuilder metadatas = new StringBuilder();
+        StringBuilder distances = new StringBuilder();
+        for (List<String> row : rows) {
+            String separator = ids.isEmpty() ? "" : ",";
+            ids.append(separator).append('[');
+            documents.append(separator).append('[');
+            metadatas.append(separator).append('[');
+            distances.append(separator).append('[');
+            for (int i = 0; i < row.size(); i++) {
+                String item = i == 0 ? "" : ",";
+                ids.append(item).append('"').append(row.get(i)).append('"');
+                documents.append(item).append("\"text of ").append(row.get(i)).append('"');
+                metadatas.append(item).append("{\"category\":\"Project\"}");
+                distances.append(item).append(0.1 * (i + 1));
+            }
+            ids.append(']');
+            documents.append(']');
+            metadatas.append(']');
+            distances.append(']');
+        }
+        return "{\"ids\":[" + ids + "],\"documents\":[" + documents + "],\"metadatas\":[" + metadatas
+                + "],\"distances\":[" + distances + "]}";
+    }
+
+    private static List<String> ids(List<RetrievedChunk> results) {
+        return results.stream().map(RetrievedChunk::id).toList();
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.chatml.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CircuitBreakerTest {
+
+    private static final int THRESHOLD = 3;
+    private static final long OPEN_MS = 30_000;
+
+    private final AtomicLong now = new AtomicLong(1_000_000_000L);
+    private final CircuitBreaker breaker = new CircuitBreaker(THRESHOLD, OPEN_MS, now::get);
+
+    @Test
+    void opensAfterConsecutiveFailures() {
+        fail(THRESHOLD - 1);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(breaker.tryAcquire()).isTrue();
+        breaker.onFailure();
+
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(breaker.tryAcquire()).isFalse();
+        assertThat(breaker.isCallPermitted()).isFalse();
+    }
+
+    @Test
+    void successResetsTheFailureCount() {
+        fail(THRESHOLD - 1);
+        assertThat(breaker.tryAcquire()).isTrue();
+        breaker.onSuccess();
+        fail(THRESHOLD - 1);
+
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void ignoredCallsDoNotCount() {
+        fail(THRESHOLD - 1);
+        for (int i = 0; i < 10; i++) {
+            assertThat(breaker.tryAcquire()).isTrue();
+            breaker.onIgnored();
+        }
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void successfulProbeClosesTheCircuit() {
+        fail(THRESHOLD);
+        advance(OPEN_MS - 1);
+        assertThat(breaker.tryAcquire()).isFalse();
+
+        advance(1);
+        assertThat(breaker.isCallPermitted()).isTrue();
+        assertThat(breaker.tryAcquire()).isTrue();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        // Only one probe at a time
+        assertThat(breaker.isCallPermitted()).isFalse();
+        assertThat(breaker.tryAcquire()).isFalse();
+
+        breaker.onSuccess();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(breaker.tryAcquire()).isTrue();
+    }
+
+    @Test
+    void failedProbeReopensForAFullPeriod() {
+        fail(THRESHOLD);
+        advance(OPEN_MS);
+        assertThat(breaker.tryAcquire()).isTrue();
+
+        breaker.onFailure();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        advance(OPEN_MS - 1);
+        assertThat(breaker.tryAcquire()).isFalse();
+
+        advance(1);
+        assertThat(breaker.tryAcquire()).isTrue();
+        breaker.onSuccess();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void ignoredProbeLetsTheNextCallProbe() {
+        fail(THRESHOLD);
+        advance(OPEN_MS);
+        assertThat(breaker.tryAcquire()).isTrue();
+
+        breaker.onIgnored();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertThat(breaker.tryAcquire()).isTrue();
+        assertThat(breaker.tryAcquire()).isFalse();
+    }
+
+    private void fail(int times) {
+        for (int i = 0; i < times; i++) {
+            assertThat(breaker.tryAcquire()).isTrue();
+            breaker.onFailure();
+        }
+    }
+
+    private void advance(long millis) {
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+}
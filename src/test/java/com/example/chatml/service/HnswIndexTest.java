@@ -0,0 +1,150 @@
+package com.example.chatml.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+import static org.assertj.core.api.Assertions.within;
+
+class HnswIndexTest {
+
+    private static final int DIMENSION = 32;
+
+    @Test
+    void searchRecallsMostOfTheExactNearestNeighbours() {
+        Random random = new Random(7);
+        HnswIndex index = new HnswIndex(16, 200);
+        for (int i = 0; i < 2000; i++) {
+            index.insert(randomVector(random));
+        }
+
+        int k = 10;
+        int hits = 0;
+        int queries = 50;
+        for (int q = 0; q < queries; q++) {
+            float[] query = randomVector(random);
+            Set<Integer> exact = nodes(index.scan(query, k, i -> true));
+            for (HnswIndex.Neighbor neighbor : index.search(query, k, 64, i -> true)) {
+                if (exact.contains(neighbor.node())) {
+                    hits++;
+                }
+            }
+        }
+        assertThat((double) hits / (queries * k)).isGreaterThanOrEqualTo(0.9);
+    }
+
+    @Test
+    void searchReturnsNearestFirst() {
+        Random random = new Random(11);
+        HnswIndex index = new HnswIndex(8, 100);
+        for (int i = 0; i < 300; i++) {
+            index.insert(randomVector(random));
+        }
+
+        List<HnswIndex.Neighbor> found = index.search(randomVector(random), 20, 64, i -> true);
+        assertThat(found).hasSize(20);
+        for (int i = 1; i < found.size(); i++) {
+            assertThat(found.get(i).distance()).isGreaterThanOrEqualTo(found.get(i - 1).distance());
+        }
+    }
+
+    @Test
+    void removedNodesAreNeverReturned() {
+        Random random = new Random(3);
+        HnswIndex index = new HnswIndex(8, 100);
+        float[][] vectors = new float[500][];
+        for (int i = 0; i < vectors.length; i++) {
+            vectors[i] = randomVector(random);
+            index.insert(vectors[i]);
+        }
+
+        // Half the graph, very likely including the entry point, becomes tombstones
+        for (int i = 0; i < vectors.length; i += 2) {
+            index.remove(i);
+        }
+
+        assertThat(index.size()).isEqualTo(250);
+        assertThat(index.deletedCount()).isEqualTo(250);
+        for (int i = 0; i < vectors.length; i += 25) {
+            List<HnswIndex.Neighbor> found = index.search(vectors[i], 10, 64, n -> true);
+            assertThat(found).isNotEmpty().allSatisfy(n -> assertThat(n.node() % 2).isEqualTo(1));
+            assertThat(index.scan(vectors[i], 10, n -> true)).allSatisfy(n -> assertThat(n.node() % 2).isEqualTo(1));
+        }
+        // A removed vector's own node is gone, a live one is its own nearest neighbour
+        assertThat(nodes(index.search(vectors[4], 1, 64, n -> true))).doesNotContain(4);
+        assertThat(index.search(vectors[5], 1, 64, n -> true).get(0).node()).isEqualTo(5);
+    }
+
+    @Test
+    void filteredSearchOnlyReturnsAcceptedNodes() {
+        Random random = new Random(5);
+        HnswIndex index = new HnswIndex(16, 200);
+        for (int i = 0; i < 1000; i++) {
+            index.insert(randomVector(random));
+        }
+
+        // One node in ten passes the filter, the graph is still navigated through the others
+        int k = 5;
+        int hits = 0;
+        int queries = 30;
+        for (int q = 0; q < queries; q++) {
+            float[] query = randomVector(random);
+            List<HnswIndex.Neighbor> found = index.search(query, k, 200, n -> n % 10 == 0);
+            assertThat(found).allSatisfy(n -> assertThat(n.node() % 10).isZero());
+
+            Set<Integer> exact = nodes(index.scan(query, k, n -> n % 10 == 0));
+            for (HnswIndex.Neighbor neighbor : found) {
+                if (exact.contains(neighbor.node())) {
+                    hits++;
+                }
+            }
+        }
+        assertThat((double) hits / (queries * k)).isGreaterThanOrEqualTo(0.8);
+    }
+
+    @Test
+    void filterAndRemovalCombine() {
+        HnswIndex index = new HnswIndex(4, 50);
+        for (int i = 0; i < 10; i++) {
+            index.insert(new float[]{i, 0f});
+        }
+        index.remove(2);
+
+        List<HnswIndex.Neighbor> found = index.search(new float[]{2.1f, 0f}, 3, 50, n -> n != 3);
+        assertThat(found).extracting(HnswIndex.Neighbor::node).containsExactly(1, 4, 0);
+        assertThat(found.get(0).distance()).isCloseTo(1.21f, within(1e-4f));
+    }
+
+    @Test
+    void emptyIndexAndDimensionMismatch() {
+        HnswIndex index = new HnswIndex(4, 50);
+        assertThat(index.search(new float[]{1f}, 3, 10, n -> true)).isEmpty();
+
+        index.insert(new float[]{1f, 2f});
+        assertThatIllegalArgumentException()
+                .isThrownBy(() -> index.insert(new float[]{1f}));
+        assertThatIllegalArgumentException()
+                .isThrownBy(() -> index.search(new float[]{1f}, 1, 10, n -> true));
+    }
+
+    private static float[] randomVector(Random random) {
+        float[] vector = new float[DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+
+    private static Set<Integer> nodes(List<HnswIndex.Neighbor> neighbors) {
+        Set<Integer> nodes = new HashSet<>();
+        for (HnswIndex.Neighbor neighbor : neighbors) {
+            nodes.add(neighbor.node());
+        }
+        return nodes;
+    }
+}
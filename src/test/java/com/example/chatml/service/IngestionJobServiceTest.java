@@ -0,0 +1,184 @@
+package com.example.chatml.service;
+
+import com.example.chatml.config.WorkerThreads;
+import com.example.chatml.model.IngestionResult;
+import com.example.chatml.service.PortfolioIngestionService.PortfolioDocument;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class IngestionJobServiceTest {
+
+    private PortfolioIngestionService ingestionService;
+    private IngestionJobService service;
+
+    // Ids of every store call, in call order, with the time each was made
+    private final List<List<String>> storeCalls = Collections.synchronizedList(new ArrayList<>());
+    private final List<Long> storeTimes = Collections.synchronizedList(new ArrayList<>());
+
+    @BeforeEach
+    void setUp() {
+        ingestionService = mock(PortfolioIngestionService.class);
+        when(ingestionService.loadManifest()).thenReturn(true);
+        when(ingestionService.toDocument(any())).thenAnswer(invocation -> {
+            Map<String, Object> item = invocation.getArgument(0);
+            String id = (String) item.get("id");
+            return new PortfolioDocument(id, "text of " + id, Map.of(), "hash-" + id);
+        });
+
+        service = new IngestionJobService(ingestionService, new WorkerThreads(new MockEnvironment()));
+        ReflectionTestUtils.setField(service, "workers", 1);
+        ReflectionTestUtils.setField(service, "maxQueuedJobs", 4);
+        ReflectionTestUtils.setField(service, "batchSize", 16);
+        ReflectionTestUtils.setField(service, "maxAttempts", 4);
+        ReflectionTestUtils.setField(service, "backoffMs", 10L);
+        ReflectionTestUtils.setField(service, "maxBackoffMs", 2000L);
+        ReflectionTestUtils.setField(service, "batchTimeoutMs", 10000L);
+        service.init();
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        service.shutdown();
+    }
+
+    @Test
+    void rateLimitedBatchWaitsForRetryAfterThenIsStored() throws Exception {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("retry-after-ms", "300");
+        onStore(batch -> {
+            if (storeCalls.size() == 1) {
+                throw HttpClientErrorException.create(HttpStatus.TOO_MANY_REQUESTS, "Too Many Requests", headers, null, null);
+            }
+            return stored(batch);
+        });
+
+        IngestionJob job = await(service.submit(source("[{\"id\": \"a\"}, {\"id\": \"b\"}]"), false));
+
+        assertThat(job.getState()).isEqualTo(IngestionJob.State.COMPLETED);
+        assertThat(job.getAdded()).isEqualTo(2);
+        assertThat(job.getRetries()).isEqualTo(1);
+        assertThat(job.getFailed()).isZero();
+        assertThat(storeCalls).containsExactly(List.of("a", "b"), List.of("a", "b"));
+        assertThat(storeTimes.get(1) - storeTimes.get(0)).isGreaterThanOrEqualTo(290);
+    }
+
+    @Test
+    void rejectedBatchIsRetriedOneDocumentAtATime() throws Exception {
+        onStore(batch -> {
+            if (batch.size() > 1 || batch.get(0).id().equals("b")) {
+                throw HttpClientErrorException.create(HttpStatus.BAD_REQUEST, "Bad Request", null, null, null);
+            }
+            return stored(batch);
+        });
+
+        IngestionJob job = await(service.submit(source("[{\"id\": \"a\"}, {\"id\": \"b\"}, {\"id\": \"c\"}]"), false));
+
+        assertThat(job.getState()).isEqualTo(IngestionJob.State.COMPLETED);
+        assertThat(job.getAdded()).isEqualTo(2);
+        assertThat(job.getFailed()).isEqualTo(1);
+        assertThat(job.getErrors()).singleElement().asString().startsWith("b: ");
+        // A rejection fails again on retry: the lone bad document is not retried
+        assertThat(job.getRetries()).isZero();
+        assertThat(storeCalls).containsExactly(List.of("a", "b", "c"), List.of("a"), List.of("b"), List.of("c"));
+    }
+
+    @Test
+    void batchStopsRetryingAtItsDeadline() throws Exception {
+        ReflectionTestUtils.setField(service, "batchTimeoutMs", 300L);
+        ReflectionTestUtils.setField(service, "maxAttempts", 1000);
+        ReflectionTestUtils.setField(service, "backoffMs", 50L);
+        ReflectionTestUtils.setField(service, "maxBackoffMs", 50L);
+        onStore(batch -> {
+            throw new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE);
+        });
+
+        long start = System.nanoTime();
+        IngestionJob job = await(service.submit(source("{\"id\": \"a\"}"), false));
+
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(2000);
+        assertThat(job.getFailed()).isEqualTo(1);
+        assertThat(job.getErrors()).singleElement().asString()
+                .startsWith("a: batch time limit of 300 ms exceeded, last error: 503");
+        assertThat(storeCalls.size()).isGreaterThan(1);
+    }
+
+    @Test
+    void failedReadStoresWhatWasReadAndDeletesNothing() throws Exception {
+        when(ingestionService.staleIds(any())).thenReturn(List.of("old"));
+        onStore(this::stored);
+
+        IngestionJob job = await(service.submit(source("[{\"id\": \"a\"}, {\"id\": \"b\"}, {\"id\":"), true));
+
+        assertThat(job.getState()).isEqualTo(IngestionJob.State.FAILED);
+        assertThat(job.getErrors()).last().asString().startsWith("Could not read portfolio items");
+        assertThat(job.isSourceRead()).isFalse();
+        assertThat(job.getAdded()).isEqualTo(2);
+        verify(ingestionService, never()).staleIds(any());
+        verify(ingestionService, never()).deleteStale(anyList());
+    }
+
+    @Test
+    void completeReadOfAReplacementDeletesStaleIds() throws Exception {
+        when(ingestionService.staleIds(any())).thenReturn(List.of("old"));
+        onStore(this::stored);
+
+        IngestionJob job = await(service.submit(source("{\"id\": \"a\"}\n{\"id\": \"b\"}"), true));
+
+        assertThat(job.getState()).isEqualTo(IngestionJob.State.COMPLETED);
+        assertThat(job.getDeleted()).isEqualTo(1);
+        verify(ingestionService).deleteStale(List.of("old"));
+    }
+
+    private interface StoreAnswer {
+        IngestionResult store(List<PortfolioDocument> batch);
+    }
+
+    private void onStore(StoreAnswer answer) {
+        when(ingestionService.store(anyList())).thenAnswer(invocation -> {
+            List<PortfolioDocument> batch = invocation.getArgument(0);
+            storeTimes.add(System.currentTimeMillis());
+            storeCalls.add(batch.stream().map(PortfolioDocument::id).toList());
+            return answer.store(batch);
+        });
+    }
+
+    private IngestionResult stored(List<PortfolioDocument> batch) {
+        return new IngestionResult(batch.size(), 0, 0, 0, List.of());
+    }
+
+    private static IngestionJobService.Source source(String json) {
+        return () -> new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static IngestionJob await(IngestionJob job) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (job.getState() == IngestionJob.State.QUEUED || job.getState() == IngestionJob.State.RUNNING) {
+            assertThat(System.nanoTime()).as("job finished in time").isLessThan(deadline);
+            Thread.sleep(10);
+        }
+        return job;
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.chatml.service;
+
+import com.example.chatml.model.RetrievedChunk;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class IngestionManifestTest {
+
+    @Test
+    void hashDoesNotDependOnMetadataOrder() {
+        Map<String, Object> forwards = new LinkedHashMap<>();
+        forwards.put("category", "Project");
+        forwards.put("rank", "2");
+        forwards.put("tags", "java,spring");
+        Map<String, Object> backwards = new LinkedHashMap<>();
+        backwards.put("tags", "java,spring");
+        backwards.put("rank", "2");
+        backwards.put("category", "Project");
+
+        assertThat(IngestionManifest.hash("Spring Boot REST API", forwards))
+                .isEqualTo(IngestionManifest.hash("Spring Boot REST API", backwards))
+                .isEqualTo(IngestionManifest.hash("Spring Boot REST API", new HashMap<>(backwards)));
+    }
+
+    @Test
+    void hashChangesWithTheTextOrAnyMetadataValue() {
+        Map<String, Object> metadata = Map.of("category", "Project", "rank", "2");
+        String hash = IngestionManifest.hash("Spring Boot REST API", metadata);
+
+        assertThat(IngestionManifest.hash("Spring Boot REST API.", metadata)).isNotEqualTo(hash);
+        assertThat(IngestionManifest.hash("Spring Boot REST API", Map.of("category", "Project", "rank", "3"))).isNotEqualTo(hash);
+        assertThat(IngestionManifest.hash("Spring Boot REST API", Map.of("category", "Project"))).isNotEqualTo(hash);
+        // Key and value boundaries are kept apart
+        assertThat(IngestionManifest.hash("t", Map.of("ab", "c"))).isNotEqualTo(IngestionManifest.hash("t", Map.of("a", "bc")));
+    }
+
+    @Test
+    void seedingHashesWhatTheVectorStoreReturns() {
+        VectorStore vectorStore = mock(VectorStore.class);
+        Map<String, Object> stored = new LinkedHashMap<>();
+        stored.put("title", "REST API");
+        stored.put("category", "Project");
+        when(vectorStore.getAllDocuments()).thenReturn(List.of(
+                RetrievedChunk.of("rest-api", "Spring Boot REST API", stored, Double.NaN)));
+        IngestionManifest manifest = new IngestionManifest(vectorStore);
+
+        assertThat(manifest.ensureSeeded()).isTrue();
+
+        // Chroma hands the metadata back in its own order; the document built from the source still matches
+        assertThat(manifest.get("rest-api"))
+                .isEqualTo(IngestionManifest.hash("Spring Boot REST API", Map.of("category", "Project", "title", "REST API")));
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.chatml.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class KeywordAutomatonTest {
+
+    @Test
+    void findsOverlappingAndNestedKeywordsInOnePass() {
+        KeywordAutomaton automaton = KeywordAutomaton.build(Map.of(
+                "he", List.of(0),
+                "she", List.of(1),
+                "his", List.of(2),
+                "hers", List.of(3)), 4);
+
+        assertThat(slots(automaton.match("ushers"))).containsExactly(0, 1, 3);
+        assertThat(slots(automaton.match("this"))).containsExactly(2);
+    }
+
+    @Test
+    void matchesSubstringsCaseInsensitively() {
+        KeywordAutomaton automaton = KeywordAutomaton.build(Map.of(
+                "star", List.of(0),
+                "ci/cd", List.of(1)), 2);
+
+        assertThat(slots(automaton.match("Starting a CI/CD pipeline"))).containsExactly(0, 1);
+        assertThat(slots(automaton.match("nothing here"))).isEmpty();
+        assertThat(slots(automaton.match(""))).isEmpty();
+    }
+
+    @Test
+    void keywordCanFeedSeveralSlots() {
+        KeywordAutomaton automaton = KeywordAutomaton.build(Map.of(
+                "experience", List.of(0, 2),
+                "most recent", List.of(1),
+                "recent", List.of(1)), 3);
+
+        assertThat(slots(automaton.match("my most recent experience"))).containsExactly(0, 1, 2);
+    }
+
+    private static List<Integer> slots(BitSet matched) {
+        return matched.stream().boxed().toList();
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.chatml.service;
+
+import com.example.chatml.service.PortfolioIngestionService.PortfolioDocument;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+class PortfolioIngestionServiceTest {
+
+    private final PortfolioIngestionService service = new PortfolioIngestionService(mock(AzureEmbeddingClient.class),
+            mock(VectorStore.class), mock(AnswerCache.class), mock(Bm25Index.class), mock(IngestionManifest.class));
+
+    @Test
+    void buildsTextAndMetadataFromAnItem() {
+        Map<String, Object> item = item("exp-1");
+        item.put("category", "Experience");
+        item.put("company", "The Hive");
+        item.put("duration", "2022 - 2024");
+        item.put("technologies", List.of("Java", "Kafka"));
+        item.put("tags", List.of("backend", "streaming"));
+        item.put("rank", 1);
+
+        PortfolioDocument document = service.toDocument(item);
+
+        assertThat(document.id()).isEqualTo("exp-1");
+        assertThat(document.text()).contains("COMPANY: The Hive.", "TECHNOLOGIES: Java, Kafka.");
+        assertThat(document.metadata())
+                .containsEntry("tags", "backend,streaming")
+                .containsEntry("rank", "1")
+                .containsEntry("start_year", "2022");
+    }
+
+    @Test
+    void itemWithoutAnIdIsSkipped() {
+        Map<String, Object> item = item(" ");
+
+        assertThat(service.toDocument(item)).isNull();
+        item.remove("id");
+        assertThat(service.toDocument(item)).isNull();
+    }
+
+    @Test
+    void mistypedFieldsAreReportedWithTheItemId() {
+        Map<String, Object> numericId = item("x");
+        numericId.put("id", 42);
+        assertThatThrownBy(() -> service.toDocument(numericId))
+                .isInstanceOf(InvalidPortfolioItemException.class)
+                .hasMessage("'id' must be a string")
+                .extracting("itemId").isEqualTo("42");
+
+        for (String field : List.of("responsibilities", "achievements", "technologies", "tags")) {
+            Map<String, Object> notAList = item("a");
+            notAList.put(field, "Java");
+            assertThatThrownBy(() -> service.toDocument(notAList))
+                    .isInstanceOf(InvalidPortfolioItemException.class)
+                    .hasMessage("'" + field + "' must be a list of strings")
+                    .extracting("itemId").isEqualTo("a");
+
+            Map<String, Object> notStrings = item("b");
+            notStrings.put(field, List.of("Java", 17));
+            assertThatThrownBy(() -> service.toDocument(notStrings))
+                    .isInstanceOf(InvalidPortfolioItemException.class)
+                    .extracting("itemId").isEqualTo("b");
+        }
+
+        Map<String, Object> numericDuration = item("c");
+        numericDuration.put("duration", 2020);
+        assertThatThrownBy(() -> service.toDocument(numericDuration))
+                .isInstanceOf(InvalidPortfolioItemException.class)
+                .hasMessage("'duration' must be a string");
+    }
+
+    @Test
+    void nullRankAndYearAreLeftOut() {
+        Map<String, Object> item = item("a");
+        item.put("rank", null);
+        Map<String, Object> meta = new HashMap<>();
+        meta.put("year", null);
+        item.put("metadata", meta);
+
+        PortfolioDocument document = service.toDocument(item);
+
+        assertThat(document.metadata()).doesNotContainKeys("rank", "year");
+    }
+
+    private static Map<String, Object> item(String id) {
+        Map<String, Object> item = new HashMap<>();
+        item.put("id", id);
+        item.put("category", "Project");
+        item.put("title", "Portfolio chatbot");
+        item.put("summary", "A retrieval-augmented assistant that answers questions about the portfolio.");
+        return item;
+    }
+}
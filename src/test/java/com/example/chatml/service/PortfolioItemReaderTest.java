@@ -0,0 +1,79 @@
+package com.example.chatml.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PortfolioItemReaderTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void readsAJsonArray() throws IOException {
+        try (PortfolioItemReader items = reader("[{\"id\": \"a\", \"tags\": [\"x\"]}, {\"id\": \"b\"}]")) {
+            assertThat(ids(items)).containsExactly("a", "b");
+        }
+    }
+
+    @Test
+    void readsNdjsonAndConcatenatedObjects() throws IOException {
+        try (PortfolioItemReader items = reader("{\"id\": \"a\"}\n{\"id\": \"b\"}{\"id\": \"c\"}\n")) {
+            assertThat(ids(items)).containsExactly("a", "b", "c");
+        }
+    }
+
+    @Test
+    void emptyBodyAndEmptyArrayHaveNoItems() throws IOException {
+        try (PortfolioItemReader items = reader("")) {
+            assertThat(items.hasNext()).isFalse();
+        }
+        try (PortfolioItemReader items = reader("[]")) {
+            assertThat(items.hasNext()).isFalse();
+        }
+    }
+
+    @Test
+    void itemThatIsNotAnObjectIsAnError() throws IOException {
+        try (PortfolioItemReader items = reader("[{\"id\": \"a\"}, 42]")) {
+            assertThat(items.next()).containsEntry("id", "a");
+            assertThatThrownBy(items::hasNext)
+                    .isInstanceOf(UncheckedIOException.class)
+                    .hasMessageContaining("Expected a JSON object for each item, found VALUE_NUMBER_INT");
+        }
+        assertThatThrownBy(() -> reader("\"a string\""))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("Expected a JSON array or JSON objects");
+    }
+
+    @Test
+    void parseErrorPartwayKeepsTheItemsBeforeIt() throws IOException {
+        try (PortfolioItemReader items = reader("{\"id\": \"a\"}\n{\"id\": \"b\"}\n{\"id\": \"c\",")) {
+            assertThat(items.next()).containsEntry("id", "a");
+            assertThat(items.next()).containsEntry("id", "b");
+            assertThatThrownBy(items::hasNext).isInstanceOf(UncheckedIOException.class);
+        }
+    }
+
+    private PortfolioItemReader reader(String json) throws IOException {
+        return new PortfolioItemReader(objectMapper, new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static List<Object> ids(PortfolioItemReader items) {
+        List<Object> ids = new ArrayList<>();
+        while (items.hasNext()) {
+            Map<String, Object> item = items.next();
+            ids.add(item.get("id"));
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.chatml.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The shipped query-routing.json must route exactly like the if/contains chain it replaced,
+ * which is kept here as the oracle.
+ */
+class QueryRouterTest {
+
+    private QueryRouter router;
+
+    @BeforeEach
+    void setUp() {
+        router = new QueryRouter(new DefaultResourceLoader());
+        ReflectionTestUtils.setField(router, "rulesLocation", "classpath:query-routing.json");
+        ReflectionTestUtils.setField(router, "reloadIntervalMs", Long.MAX_VALUE / 2);
+        router.init();
+    }
+
+    static Stream<String> questions() {
+        Stream<String> keywords = Stream.of(
+                "the hive", "hive", "mondiale", "etudes", "new technologies", "pfe", "bank of tunis", "bank",
+                "careforelders", "care for elders", "elderly care", "fullcare", "blockchain", "hedera",
+                "ecommerce", "multipurpose", "project", "experience", "work", "job", "professional",
+                "education", "study", "degree", "university", "learn", "challenge", "difficult", "overcome",
+                "tell me about a time", "give me an example", "describe a situation", "star",
+                "architecture", "system design", "scalability", "design a system",
+                "devops", "ci/cd", "docker", "kubernetes", "deployment",
+                "work history", "jobs", "career", "all", "list", "what are",
+                "last", "recent", "latest", "current", "newest", "most recent");
+        Stream<String> overlaps = Stream.of(
+                "What did you build at The Hive for that project?",
+                "Which bank project used blockchain?",
+                "Tell me about your project experience",
+                "List all your jobs",
+                "What are your most recent work experiences?",
+                "Describe your education and the degree project",
+                "What did you learn from the Kubernetes deployment?",
+                "Give me an example of a system design challenge",
+                "Starting out, what was your first job?",
+                "Hello there",
+                "HEDERA and FullCare",
+                "What is your current career path at New Technologies?");
+        return Stream.concat(keywords.map(keyword -> "Tell me about " + keyword), overlaps);
+    }
+
+    @ParameterizedTest
+    @MethodSource("questions")
+    void routesLikeTheBaselineChain(String question) {
+        QueryRouter.Route route = router.route(question);
+        QueryRouter.Route expected = baselineRoute(question);
+
+        assertThat(route.filter()).isEqualTo(expected.filter());
+        assertThat(route.retrievalCount()).isEqualTo(expected.retrievalCount());
+        assertThat(route.contextLimit()).isEqualTo(expected.contextLimit());
+        assertThat(route.temporal()).isEqualTo(expected.temporal());
+    }
+
+    @ParameterizedTest
+    @CsvSource(delimiter = '|', value = {
+            "What did you build at The Hive for that project? | company | The Hive",
+            "Which bank project used blockchain?              | company | Bank of Tunis",
+            "Tell me about your project experience            | category | Project",
+            "List all your jobs                               | category | Experience",
+            "Starting out, what was your first thing?         | category | Behavioral",
+            "What did you learn from the Kubernetes rollout?  | category | Technical"})
+    void earlierRulesWin(String question, String field, String value) {
+        assertThat(router.route(question).filter()).isEqualTo(Map.of(field, value));
+    }
+
+    @ParameterizedTest
+    @CsvSource(delimiter = '|', value = {
+            "List all your jobs                | 8  | 6",
+            "What are your projects?           | 10 | 8",
+            "Tell me about your career         | 8  | 6",
+            "Tell me about CareForElders       | 5  | 3"})
+    void experienceSizingBeatsComprehensive(String question, int retrievalCount, int contextLimit) {
+        QueryRouter.Route route = router.route(question);
+        assertThat(route.retrievalCount()).isEqualTo(retrievalCount);
+        assertThat(route.contextLimit()).isEqualTo(contextLimit);
+    }
+
+    /**
+     * The routing chain from RagChatService before the rules file existed.
+     */
+    private static QueryRouter.Route baselineRoute(String question) {
+        String q = question.toLowerCase();
+        Map<String, Object> filter = null;
+        if (q.contains("the hive") || q.contains("hive")) {
+            filter = Map.of("company", "The Hive");
+        } else if (q.contains("mondiale") || q.contains("etudes")) {
+            filter = Map.of("company", "Mondiale des Etudes & Réalisations Industrielles");
+        } else if (q.contains("new technologies") || q.contains("pfe")) {
+            filter = Map.of("company", "New Technologies");
+        } else if (q.contains("bank of tunis") || q.contains("bank")) {
+            filter = Map.of("company", "Bank of Tunis");
+        } else if (q.contains("careforelders") || q.contains("care for elders") || q.contains("elderly care")) {
+            filter = Map.of("title", "CareForElders – AI-Powered Elderly Care Platform");
+        } else if (q.contains("fullcare") || q.contains("blockchain") || q.contains("hedera")) {
+            filter = Map.of("title", "FullCare_App – Blockchain Healthcare Document Management");
+        } else if (q.contains("ecommerce") || q.contains("multipurpose")) {
+            filter = Map.of("title", "MultiPurpose_Ecommerce – Customizable B2B/B2C Platform");
+        } else if (q.contains("project")) {
+            filter = Map.of("category", "Project");
+        } else if (q.contains("experience") || q.contains("work") || q.contains("job") || q.contains("professional")) {
+            filter = Map.of("category", "Experience");
+        } else if (q.contains("education") || q.contains("study") || q.contains("degree") || q.contains("university")) {
+            filter = Map.of("category", "Education");
+        } else if (q.contains("learn") || q.contains("challenge") || q.contains("difficult") || q.contains("overcome")) {
+            filter = Map.of("category", "Technical");
+        } else if (q.contains("tell me about a time") || q.contains("give me an example")
+                || q.contains("describe a situation") || q.contains("star")) {
+            filter = Map.of("category", "Behavioral");
+        }
+
+        boolean comprehensive = q.contains("all") || q.contains("list") || q.contains("what are");
+        boolean experience = q.contains("experience") || q.contains("work history") || q.contains("jobs")
+                || q.contains("career");
+        int retrievalCount = experience ? 8 : comprehensive ? 10 : 5;
+        int contextLimit = experience ? 6 : comprehensive ? 8 : 3;
+
+        boolean temporal = q.contains("last") || q.contains("recent") || q.contains("latest")
+                || q.contains("current") || q.contains("newest") || q.contains("most recent");
+        return new QueryRouter.Route(filter, null, retrievalCount, contextLimit, temporal);
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.chatml.service;
+
+import com.example.chatml.model.RetrievedChunk;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RagChatServiceTest {
+
+    private static final int K = 60;
+
+    @Test
+    void fuseRanksDocumentsFoundBySeveralSearchesFirst() {
+        List<RetrievedChunk> vector = chunks("a", "b", "c");
+        List<RetrievedChunk> keyword = chunks("c", "a", "d");
+
+        // a: 1/61 + 1/62, c: 1/63 + 1/61, b: 1/62, d: 1/63
+        assertThat(ids(RagChatService.fuse(List.of(vector, keyword), 10, K))).containsExactly("a", "c", "b", "d");
+        assertThat(ids(RagChatService.fuse(List.of(vector, keyword), 3, K))).containsExactly("a", "c", "b");
+    }
+
+    @Test
+    void fuseBreaksTiesByFirstAppearance() {
+        assertThat(ids(RagChatService.fuse(List.of(chunks("x", "y"), chunks("y", "x")), 10, K)))
+                .containsExactly("x", "y");
+    }
+
+    @Test
+    void fuseReturnsASingleRankingUnchanged() {
+        List<RetrievedChunk> only = chunks("a", "b", "c");
+
+        assertThat(RagChatService.fuse(List.of(List.of(), only, List.of()), 2, K)).isSameAs(only);
+        assertThat(RagChatService.fuse(List.of(List.of(), List.of()), 2, K)).isEmpty();
+    }
+
+    @Test
+    void fuseKeysChunksWithoutIdByText() {
+        RetrievedChunk fromVector = RetrievedChunk.of(null, "same text", Map.of(), 0.1);
+        RetrievedChunk fromKeyword = RetrievedChunk.of(null, "same text", Map.of(), Double.NaN);
+        RetrievedChunk other = RetrievedChunk.of(null, "other text", Map.of(), Double.NaN);
+
+        List<RetrievedChunk> fused = RagChatService.fuse(List.of(List.of(fromVector), List.of(other, fromKeyword)), 10, K);
+
+        // The first copy seen is kept, with its vector distance
+        assertThat(fused).containsExactly(fromVector, other);
+    }
+
+    private static List<RetrievedChunk> chunks(String... ids) {
+        return Arrays.stream(ids).map(id -> RetrievedChunk.of(id, "text of " + id, Map.of(), Double.NaN)).toList();
+    }
+
+    private static List<String> ids(List<RetrievedChunk> results) {
+        return results.stream().map(RetrievedChunk::id).toList();
+    }
+}
@@ -0,0 +1,199 @@
+package com.example.chatml.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SingleFlightTest {
+
+    private static final int CALLERS = 8;
+
+    private final SingleFlight<String, String> singleFlight = new SingleFlight<>();
+    private final ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void concurrentCallersShareOneExecution() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        Future<String> leader = executor.submit(() -> singleFlight.execute("q", () -> {
+            calls.incrementAndGet();
+            await(release);
+            return "answer";
+        }));
+        awaitCondition(() -> singleFlight.getInFlight() == 1);
+
+        List<Future<String>> followers = new ArrayList<>();
+        for (int i = 1; i < CALLERS; i++) {
+            followers.add(executor.submit(() -> singleFlight.execute("q", () -> {
+                calls.incrementAndGet();
+                return "own answer";
+            })));
+        }
+        awaitCondition(() -> singleFlight.getCoalesced() == CALLERS - 1);
+        release.countDown();
+
+        assertThat(leader.get(5, TimeUnit.SECONDS)).isEqualTo("answer");
+        for (Future<String> follower : followers) {
+            assertThat(follower.get(5, TimeUnit.SECONDS)).isEqualTo("answer");
+        }
+        assertThat(calls).hasValue(1);
+        assertThat(singleFlight.getExecutions()).isEqualTo(1);
+        assertThat(singleFlight.getInFlight()).isZero();
+    }
+
+    @Test
+    void failureReachesEveryWaitingCaller() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        IllegalStateException failure = new IllegalStateException("Azure returned 500");
+        Future<String> leader = executor.submit(() -> singleFlight.execute("q", () -> {
+            await(release);
+            throw failure;
+        }));
+        awaitCondition(() -> singleFlight.getInFlight() == 1);
+        List<Future<String>> followers = new ArrayList<>();
+        for (int i = 1; i < CALLERS; i++) {
+            followers.add(executor.submit(() -> singleFlight.execute("q", () -> "own answer")));
+        }
+        awaitCondition(() -> singleFlight.getCoalesced() == CALLERS - 1);
+        release.countDown();
+
+        assertThatThrownBy(() -> leader.get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class).hasCause(failure);
+        for (Future<String> follower : followers) {
+            assertThatThrownBy(() -> follower.get(5, TimeUnit.SECONDS))
+                    .isInstanceOf(ExecutionException.class).hasCause(failure);
+        }
+
+        // The failed call is not remembered: the next caller runs its own
+        assertThat(singleFlight.execute("q", () -> "retry")).isEqualTo("retry");
+        assertThat(singleFlight.getExecutions()).isEqualTo(2);
+    }
+
+    @Test
+    void differentKeysRunIndependently() throws Exception {
+        CountDownLatch bothStarted = new CountDownLatch(2);
+        Future<String> first = executor.submit(() -> singleFlight.execute("a", () -> {
+            bothStarted.countDown();
+            await(bothStarted);
+            return "A";
+        }));
+        Future<String> second = executor.submit(() -> singleFlight.execute("b", () -> {
+            bothStarted.countDown();
+            await(bothStarted);
+            return "B";
+        }));
+
+        assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo("A");
+        assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo("B");
+        assertThat(singleFlight.getCoalesced()).isZero();
+    }
+
+    @Test
+    void completedResultIsNotCached() {
+        assertThat(singleFlight.execute("q", () -> "first")).isEqualTo("first");
+        assertThat(singleFlight.execute("q", () -> "second")).isEqualTo("second");
+        assertThat(singleFlight.getExecutions()).isEqualTo(2);
+    }
+
+    @Test
+    void waitingCallerGivesUpAtItsOwnDeadline() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Future<String> leader = executor.submit(() -> singleFlight.execute("q", () -> {
+            await(release);
+            return "answer";
+        }));
+        awaitCondition(() -> singleFlight.getInFlight() == 1);
+
+        try (Deadline.Scope scope = Deadline.after(50).activate()) {
+            assertThatThrownBy(() -> singleFlight.execute("q", () -> "own answer"))
+                    .isInstanceOf(DeadlineExceededException.class);
+        }
+        release.countDown();
+
+        assertThat(leader.get(5, TimeUnit.SECONDS)).isEqualTo("answer");
+    }
+
+    @Test
+    void leaderOwnDeadlineIsNotSharedWithWaitingCallers() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Future<String> leader = executor.submit(() -> {
+            try (Deadline.Scope scope = Deadline.after(30_000).activate()) {
+                return singleFlight.execute("q", () -> {
+                    await(release);
+                    Deadline.current().cancel();
+                    throw new DeadlineExceededException("chat completion");
+                });
+            }
+        });
+        awaitCondition(() -> singleFlight.getInFlight() == 1);
+        Future<String> follower = executor.submit(() -> singleFlight.execute("q", () -> "own answer"));
+        awaitCondition(() -> singleFlight.getCoalesced() == 1);
+        release.countDown();
+
+        assertThatThrownBy(() -> leader.get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class).hasCauseInstanceOf(DeadlineExceededException.class);
+        assertThat(follower.get(5, TimeUnit.SECONDS)).isEqualTo("own answer");
+        assertThat(singleFlight.getExecutions()).isEqualTo(2);
+    }
+
+    @Test
+    void cancelledLeaderHandsTheCallToAWaitingCaller() throws Exception {
+        CountDownLatch leaderStarted = new CountDownLatch(1);
+        Future<String> leader = executor.submit(() -> singleFlight.execute("q", () -> {
+            leaderStarted.countDown();
+            try {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("request aborted", e);
+            }
+            return "answer";
+        }));
+        await(leaderStarted);
+        Future<String> follower = executor.submit(() -> singleFlight.execute("q", () -> "own answer"));
+        awaitCondition(() -> singleFlight.getCoalesced() == 1);
+        leader.cancel(true);
+
+        assertThat(follower.get(5, TimeUnit.SECONDS)).isEqualTo("own answer");
+        assertThat(singleFlight.getExecutions()).isEqualTo(2);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            if (!latch.await(5, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("latch not released");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+        long giveUp = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > giveUp) {
+                throw new AssertionError("condition not reached in 5s");
+            }
+            Thread.sleep(1);
+        }
+    }
+}